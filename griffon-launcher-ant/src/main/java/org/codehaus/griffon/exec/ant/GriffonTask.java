@@ -22,11 +22,15 @@ import java.io.FilenameFilter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Reference;
 
@@ -67,6 +71,56 @@ import org.apache.tools.ant.types.Reference;
  * used to execute the Griffon scripts. Typically you would use this
  * option in conjunction with something like Ivy.
  * </p>
+ * <p>Setting the <code>classListCache</code> attribute to a directory
+ * makes the task record the classes loaded while running each script,
+ * and preload them in the background on later runs (see
+ * {@link ClassListPreloader}).
+ * </p>
+ * <p>Setting <code>normalizeClasspath</code> to <code>true</code> removes
+ * duplicate jars from the classpath before Griffon is loaded, and warns
+ * about artifacts that are present in more than one version (see
+ * {@link ClasspathNormalizer}).
+ * </p>
+ * <p>The <code>bootstrapCache</code> attribute names a directory in which
+ * the jars Griffon is loaded from are flattened into a single uncompressed
+ * archive, which is then used in their place (see
+ * {@link FlattenedClasspath}).
+ * </p>
+ * <p>Setting <code>warmUp</code> to <code>true</code> makes the class
+ * loader validate its jars up front, and reports those that are missing or
+ * cannot be read as jars before Griffon is started. It is a check, and does
+ * not make the launch faster.
+ * </p>
+ * <p>The task can skip scripts whose inputs have not changed since their
+ * last successful run:
+ * <pre>
+ *   &lt;griffon home="${griffon.home}" script="Compile" stateFile="target/griffon-state.properties"&gt;
+ *      &lt;inputs dir="src"/&gt;
+ *      &lt;inputs dir="griffon-app"/&gt;
+ *      &lt;outputs dir="target/classes"/&gt;
+ *   &lt;/griffon&gt;
+ * </pre>
+ * The script is skipped, without even loading Griffon, if the script,
+ * arguments, environment, classpath and the content of the inputs are the
+ * same as for the last successful run, and the outputs have not been
+ * modified since.
+ * </p>
+ * <p>The <code>scriptIndex</code> attribute names a file in which the
+ * scripts available to the project are indexed, so that commands are
+ * normalized to script names and unknown ones fail the task, with
+ * suggestions, before Griffon is started (see {@link ScriptCatalog}).
+ * </p>
+ * <p>Setting <code>scriptCache</code> to a directory keeps the compiled
+ * scripts there, so that they are not compiled again on the next run if
+ * Griffon loads them through the root loader (see
+ * {@link ScriptClassCache}). The directory may be shared by several builds.
+ * </p>
+ * <p>The <code>parentFirst</code>, <code>childOnly</code> and
+ * <code>blocked</code> attributes take comma separated lists of packages
+ * or classes, and control whether Griffon shares them with Ant, always
+ * loads its own copy, or cannot load them at all (see
+ * {@link DelegationPolicy}).
+ * </p>
  */
 public class GriffonTask extends Task {
 
@@ -76,6 +130,18 @@ public class GriffonTask extends Task {
     private String environment;
     private boolean includeRuntimeClasspath = true;
     private Path classpath;
+    private File classListCache;
+    private boolean normalizeClasspath;
+    private File bootstrapCache;
+    private boolean warmUp;
+    private File stateFile;
+    private File scriptIndex;
+    private File scriptCache;
+    private String parentFirst;
+    private String childOnly;
+    private String blocked;
+    private List<FileSet> inputs = new ArrayList<FileSet>();
+    private List<FileSet> outputs = new ArrayList<FileSet>();
 
     private Path compileClasspath;
     private Path testClasspath;
@@ -95,22 +161,47 @@ public class GriffonTask extends Task {
             throw new BuildException("You cannot use both 'home' and 'classpath' with the Griffon task.");
         }
 
+        ScriptState state = null;
+        if (!inputs.isEmpty()) {
+            if (stateFile == null) throw new BuildException("'stateFile' must be provided with 'inputs'.");
+
+            List<URL> urls = getClasspathUrls();
+            state = new ScriptState(getProject(), stateFile, script, args, environment,
+                urls.toArray(new URL[urls.size()]), inputs, outputs);
+            if (state.isUpToDate()) {
+                log("Griffon script " + script + " is up to date, skipping it.");
+                return;
+            }
+        }
+
         runGriffon(script, args);
+
+        if (state != null) state.record();
     }
 
     protected void runGriffon(String targetName, @SuppressWarnings("hiding") String args) {
         // First get the dependencies from the classpath.
-        List<URL> urls = new ArrayList<URL>();
-        if (classpath != null) {
-            urls.addAll(pathsToUrls(classpath));
-        }
-        else {
-            urls.addAll(getRequiredLibsFromHome());
-        }
+        List<URL> urls = getClasspathUrls();
 
         try {
             URL[] loaderUrls = urls.toArray(new URL[urls.size()]);
-            RootLoader rootLoader = new RootLoader(loaderUrls, getClass().getClassLoader());
+            if (bootstrapCache != null) {
+                loaderUrls = new FlattenedClasspath(bootstrapCache).flatten(loaderUrls);
+            }
+            RootLoader rootLoader = new RootLoader(loaderUrls, getClass().getClassLoader(), warmUp);
+            DelegationPolicy policy = rootLoader.getDelegationPolicy();
+            if (parentFirst != null) policy.parentFirst(parentFirst.split(","));
+            if (childOnly != null) policy.childOnly(childOnly.split(","));
+            if (blocked != null) policy.blocked(blocked.split(","));
+            for (Map.Entry<URL, String> invalidJar : rootLoader.getInvalidJars().entrySet()) {
+                log("Unable to open " + invalidJar.getKey() + ": " + invalidJar.getValue(), Project.MSG_WARN);
+            }
+
+            ClassListPreloader preloader = null;
+            if (classListCache != null) {
+                preloader = new ClassListPreloader(rootLoader, new File(classListCache, targetName + ".classlist"));
+                preloader.start();
+            }
 
             GriffonLauncher launcher;
             if (getProject().getBaseDir() != null) {
@@ -121,12 +212,36 @@ public class GriffonTask extends Task {
                 launcher = new GriffonLauncher(rootLoader, home == null ? null : home.getCanonicalPath());
             }
 
+            if (scriptIndex != null) {
+                launcher.setScriptCatalog(launcher.createScriptCatalog(scriptIndex));
+            }
+            if (scriptCache != null) {
+                if (launcher.getScriptCatalog() == null) {
+                    launcher.setScriptCatalog(launcher.createScriptCatalog(new File(scriptCache, "scripts.index")));
+                }
+                launcher.setScriptClassCache(launcher.createScriptClassCache(scriptCache));
+            }
+
             int retval;
-            if (environment == null) {
-                retval = launcher.launch(targetName, args);
+            boolean launched = false;
+            try {
+                if (environment == null) {
+                    retval = launcher.launch(targetName, args);
+                }
+                else {
+                    retval = launcher.launch(targetName, args, environment);
+                }
+                launched = true;
             }
-            else {
-                retval = launcher.launch(targetName, args, environment);
+            finally {
+                // Only a launch that completed is worth recording.
+                if (preloader != null && launched) {
+                    preloader.finish();
+                    log(preloader.getReport(), Project.MSG_VERBOSE);
+                }
+                else if (preloader != null) {
+                    preloader.cancel();
+                }
             }
 
             if (retval != 0) {
@@ -138,6 +253,17 @@ public class GriffonTask extends Task {
         }
     }
 
+    private List<URL> getClasspathUrls() {
+        List<URL> urls = new ArrayList<URL>();
+        if (classpath != null) {
+            urls.addAll(pathsToUrls(classpath));
+        }
+        else {
+            urls.addAll(getRequiredLibsFromHome());
+        }
+        return urls;
+    }
+
     private List<URL> getRequiredLibsFromHome() {
         List<URL> urls = new ArrayList<URL>();
 
@@ -178,9 +304,26 @@ public class GriffonTask extends Task {
     private List<URL> pathsToUrls(Path path) {
         if (path == null) return Collections.emptyList();
 
-        List<URL> urls = new ArrayList<URL>(path.size());
+        List<File> files = new ArrayList<File>(path.size());
         for (String filePath : path.list()) {
-            try { urls.add(new File(filePath).toURI().toURL()); }
+            files.add(new File(filePath));
+        }
+
+        if (normalizeClasspath) {
+            ClasspathNormalizer normalizer = new ClasspathNormalizer(files);
+            for (String duplicate : normalizer.getDuplicates()) {
+                log("Removed duplicate classpath entry " + duplicate, Project.MSG_VERBOSE);
+            }
+            for (Map.Entry<String, List<File>> conflict : normalizer.getConflicts().entrySet()) {
+                log("Multiple versions of " + conflict.getKey() + " on the classpath: " + conflict.getValue(),
+                    Project.MSG_WARN);
+            }
+            return Arrays.asList(normalizer.getURLs());
+        }
+
+        List<URL> urls = new ArrayList<URL>(files.size());
+        for (File file : files) {
+            try { urls.add(file.toURI().toURL()); }
             catch (MalformedURLException ex) { throw new RuntimeException(ex); }
         }
 
@@ -233,6 +376,94 @@ public class GriffonTask extends Task {
         this.environment = environment;
     }
 
+    public File getClassListCache() {
+        return classListCache;
+    }
+
+    public void setClassListCache(File classListCache) {
+        this.classListCache = classListCache;
+    }
+
+    public File getBootstrapCache() {
+        return bootstrapCache;
+    }
+
+    public void setBootstrapCache(File bootstrapCache) {
+        this.bootstrapCache = bootstrapCache;
+    }
+
+    public File getStateFile() {
+        return stateFile;
+    }
+
+    public void setStateFile(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    public File getScriptIndex() {
+        return scriptIndex;
+    }
+
+    public void setScriptIndex(File scriptIndex) {
+        this.scriptIndex = scriptIndex;
+    }
+
+    public File getScriptCache() {
+        return scriptCache;
+    }
+
+    public void setScriptCache(File scriptCache) {
+        this.scriptCache = scriptCache;
+    }
+
+    public String getParentFirst() {
+        return parentFirst;
+    }
+
+    public void setParentFirst(String parentFirst) {
+        this.parentFirst = parentFirst;
+    }
+
+    public String getChildOnly() {
+        return childOnly;
+    }
+
+    public void setChildOnly(String childOnly) {
+        this.childOnly = childOnly;
+    }
+
+    public String getBlocked() {
+        return blocked;
+    }
+
+    public void setBlocked(String blocked) {
+        this.blocked = blocked;
+    }
+
+    public void addInputs(FileSet fileSet) {
+        inputs.add(fileSet);
+    }
+
+    public void addOutputs(FileSet fileSet) {
+        outputs.add(fileSet);
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    public boolean isNormalizeClasspath() {
+        return normalizeClasspath;
+    }
+
+    public void setNormalizeClasspath(boolean normalizeClasspath) {
+        this.normalizeClasspath = normalizeClasspath;
+    }
+
     public boolean isIncludeRuntimeClasspath() {
         return includeRuntimeClasspath;
     }
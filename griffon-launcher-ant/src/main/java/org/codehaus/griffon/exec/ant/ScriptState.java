@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher.ant;
+
+import org.codehaus.griffon.launcher.ClasspathFingerprint;
+import org.codehaus.griffon.launcher.LauncherThreadFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+
+/**
+ * Computes the state of a script execution, i.e. a digest of everything
+ * that may affect its result, and records it in a state file after a
+ * successful run. When the recorded state matches the current one, the
+ * script does not need to run again.
+ * <p>
+ * Input files are hashed by content, in parallel. Output files are only
+ * checked by size and modification time, so that deleting or touching an
+ * output makes the script run again without paying for hashing the, often
+ * large, output trees.
+ */
+class ScriptState {
+    private final Project project;
+    private final File stateFile;
+    private final String key;
+    private final List<FileSet> inputs;
+    private final List<FileSet> outputs;
+    private final String classpathFingerprint;
+    private String inputHash;
+
+    ScriptState(Project project, File stateFile, String script, String args, String environment,
+                URL[] classpath, List<FileSet> inputs, List<FileSet> outputs) {
+        this.project = project;
+        this.stateFile = stateFile;
+        this.key = script + " " + (environment == null ? "" : environment) + " " + (args == null ? "" : args);
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.classpathFingerprint = ClasspathFingerprint.of(classpath);
+    }
+
+    /**
+     * Returns <code>true</code> if the inputs and outputs are the same as
+     * after the last successful run of the script with the same arguments,
+     * environment and classpath.
+     */
+    boolean isUpToDate() {
+        String recorded = load().getProperty(key);
+        return recorded != null && recorded.equals(currentState());
+    }
+
+    /**
+     * Records the current state as the result of a successful run.
+     */
+    void record() {
+        Properties state = load();
+        state.setProperty(key, currentState());
+
+        File dir = stateFile.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new RuntimeException("Unable to create directory " + dir);
+        }
+        try {
+            OutputStream out = new FileOutputStream(stateFile);
+            try {
+                state.store(out, "Griffon script state");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write " + stateFile, e);
+        }
+    }
+
+    private String currentState() {
+        if (inputHash == null) {
+            // Inputs are hashed before the script runs, and the state is
+            // recorded with that hash, so that a change made while the
+            // script runs triggers another run.
+            inputHash = hashInputs();
+        }
+        return classpathFingerprint + ":" + inputHash + ":" + stampOutputs();
+    }
+
+    private Properties load() {
+        Properties state = new Properties();
+        if (!stateFile.isFile()) return state;
+        try {
+            InputStream in = new FileInputStream(stateFile);
+            try {
+                state.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Treat an unreadable state as no state at all.
+            state.clear();
+        }
+        return state;
+    }
+
+    private String hashInputs() {
+        final List<File> files = listFiles(inputs);
+
+        List<Future<String>> hashes = new ArrayList<Future<String>>(files.size());
+        int threads = Math.max(1, Math.min(files.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new LauncherThreadFactory("hashing"));
+        try {
+            for (final File file : files) {
+                hashes.add(pool.submit(new Callable<String>() {
+                    public String call() throws IOException {
+                        return ClasspathFingerprint.contentHash(file);
+                    }
+                }));
+            }
+
+            MessageDigest digest = newDigest();
+            for (int i = 0; i < files.size(); i++) {
+                update(digest, files.get(i).getPath() + "=" + hashes.get(i).get() + "\n");
+            }
+            return toHex(digest.digest());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to hash inputs", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private String stampOutputs() {
+        MessageDigest digest = newDigest();
+        for (File file : listFiles(outputs)) {
+            update(digest, file.getPath() + "=" + file.length() + ":" + file.lastModified() + "\n");
+        }
+        return toHex(digest.digest());
+    }
+
+    private List<File> listFiles(List<FileSet> fileSets) {
+        List<File> files = new ArrayList<File>();
+        for (FileSet fileSet : fileSets) {
+            File dir = fileSet.getDir(project);
+            for (String path : fileSet.getDirectoryScanner(project).getIncludedFiles()) {
+                files.add(new File(dir, path));
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String str) {
+        try {
+            digest.update(str.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16))
+               .append(Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
+}
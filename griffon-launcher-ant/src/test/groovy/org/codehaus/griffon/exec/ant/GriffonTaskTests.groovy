@@ -1,6 +1,8 @@
 package org.codehaus.griffon.launcher.ant
 
 import org.apache.tools.ant.BuildException
+import org.apache.tools.ant.Project
+import org.apache.tools.ant.types.FileSet
 import org.apache.tools.ant.types.Path
 
 /**
@@ -44,6 +46,54 @@ public class GriffonTaskTests extends GroovyTestCase {
         }
     }
 
+    void testInputsWithoutStateFile() {
+        def task = new GriffonTask()
+        task.project = new Project()
+        task.script = "Compile"
+        task.addClasspath(new Path(task.project))
+        task.addInputs(new FileSet(dir: new File(".")))
+
+        shouldFail(BuildException) {
+            task.execute()
+        }
+    }
+
+    void testUpToDateScriptIsSkipped() {
+        def dir = File.createTempFile("griffon-task", "")
+        dir.delete()
+        new File(dir, "src").mkdirs()
+        new File(dir, "src/Foo.groovy").text = "class Foo {}"
+
+        try {
+            def task = new GriffonTask()
+            task.project = new Project()
+            task.script = "Compile"
+            task.addClasspath(new Path(task.project))
+            task.stateFile = new File(dir, "state.properties")
+            task.addInputs(new FileSet(dir: new File(dir, "src")))
+
+            // Griffon is not on the classpath, so running the script fails.
+            shouldFail(BuildException) {
+                task.execute()
+            }
+            assertFalse task.stateFile.exists()
+
+            def state = new ScriptState(task.project, task.stateFile, "Compile", null, null,
+                [] as URL[], [new FileSet(dir: new File(dir, "src"))], [])
+            state.record()
+
+            // Now the script is up to date, so Griffon is not even loaded.
+            task.execute()
+
+            new File(dir, "src/Foo.groovy").text = "class Foo { String bar }"
+            shouldFail(BuildException) {
+                task.execute()
+            }
+        } finally {
+            dir.deleteDir()
+        }
+    }
+
     void testGetCommand() {
         def task = new GriffonTask()
         task.script = "TestApp"
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher.gradle;
+
+import org.codehaus.griffon.launcher.GriffonLauncher;
+import org.codehaus.griffon.launcher.LauncherPool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * <p>Gradle task for executing Griffon scripts:
+ * <pre>
+ *    apply plugin: 'griffon-launcher'
+ *
+ *    task griffonPackage(type: GriffonExec) {
+ *        classpath = configurations.griffon
+ *        script = 'Package'
+ *        sources = files('griffon-app', 'src')
+ *        outputDir = file('dist')
+ *    }
+ * </pre>
+ * The <code>classpath</code> contains the jars of Griffon itself, while
+ * <code>script</code> is the name of the Griffon script to run. The
+ * project's dependencies can be passed through
+ * <code>compileDependencies</code>, <code>runtimeDependencies</code> and
+ * <code>testDependencies</code>.
+ * </p>
+ * <p>All the tasks of a build that run Griffon for the same project with the
+ * same classpath share one launcher, which stays warm from one task to the
+ * next (see {@link LauncherCache}).
+ * </p>
+ * <p>The script, its arguments and environment, the project directory, the
+ * classpath, the dependencies and the <code>inputs</code> are the inputs of
+ * the task, and <code>outputDir</code> its output, so that Gradle skips the
+ * task when none of them changed. Tasks without an <code>outputDir</code>
+ * always run.
+ * </p>
+ */
+public class GriffonExec extends DefaultTask {
+    private String script;
+    private String args;
+    private String environment;
+    private String griffonHome;
+    private File baseDir;
+    private FileCollection classpath;
+    private FileCollection compileDependencies;
+    private FileCollection runtimeDependencies;
+    private FileCollection testDependencies;
+    private FileCollection sources;
+    private File outputDir;
+
+    public GriffonExec() {
+        baseDir = getProject().getProjectDir();
+    }
+
+    @TaskAction
+    public void launch() {
+        if (script == null) throw new GradleException("'script' must be set");
+        if (classpath == null) throw new GradleException("'classpath' must be set");
+
+        LauncherPool.Entry entry = LauncherCache.forBuild(getProject().getGradle())
+            .get(classpath.getFiles(), griffonHome, baseDir);
+        entry.getLock().lock();
+        try {
+            GriffonLauncher launcher = entry.getLauncher();
+            if (compileDependencies != null || runtimeDependencies != null || testDependencies != null) {
+                launcher.updateDependencies(toList(compileDependencies), toList(runtimeDependencies),
+                    toList(testDependencies));
+            }
+
+            String scriptArgs = args == null ? "" : args;
+            int retval = environment == null ?
+                launcher.launch(script, scriptArgs) :
+                launcher.launch(script, scriptArgs, environment);
+            if (retval != 0) {
+                throw new GradleException("Griffon returned non-zero value: " + retval);
+            }
+        } finally {
+            entry.getLock().unlock();
+        }
+    }
+
+    private static List<File> toList(FileCollection files) {
+        return files == null ? null : new ArrayList<File>(files.getFiles());
+    }
+
+    @Input
+    public String getScript() {
+        return script;
+    }
+
+    public void setScript(String script) {
+        this.script = script;
+    }
+
+    @Input @Optional
+    public String getArgs() {
+        return args;
+    }
+
+    public void setArgs(String args) {
+        this.args = args;
+    }
+
+    @Input @Optional
+    public String getEnvironment() {
+        return environment;
+    }
+
+    public void setEnvironment(String environment) {
+        this.environment = environment;
+    }
+
+    @Input @Optional
+    public String getGriffonHome() {
+        return griffonHome;
+    }
+
+    public void setGriffonHome(String griffonHome) {
+        this.griffonHome = griffonHome;
+    }
+
+    /**
+     * The project directory. Only its path is an input: its content
+     * includes the outputs of the task, and the inputs that matter are
+     * given through <code>sources</code>.
+     */
+    @Input
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    public void setBaseDir(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    @InputFiles
+    public FileCollection getClasspath() {
+        return classpath;
+    }
+
+    public void setClasspath(FileCollection classpath) {
+        this.classpath = classpath;
+    }
+
+    @InputFiles @Optional
+    public FileCollection getCompileDependencies() {
+        return compileDependencies;
+    }
+
+    public void setCompileDependencies(FileCollection compileDependencies) {
+        this.compileDependencies = compileDependencies;
+    }
+
+    @InputFiles @Optional
+    public FileCollection getRuntimeDependencies() {
+        return runtimeDependencies;
+    }
+
+    public void setRuntimeDependencies(FileCollection runtimeDependencies) {
+        this.runtimeDependencies = runtimeDependencies;
+    }
+
+    @InputFiles @Optional
+    public FileCollection getTestDependencies() {
+        return testDependencies;
+    }
+
+    public void setTestDependencies(FileCollection testDependencies) {
+        this.testDependencies = testDependencies;
+    }
+
+    @InputFiles @Optional
+    public FileCollection getSources() {
+        return sources;
+    }
+
+    public void setSources(FileCollection sources) {
+        this.sources = sources;
+    }
+
+    @OutputDirectory @Optional
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher.gradle;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+
+/**
+ * Makes the {@link GriffonExec} task type available to build scripts
+ * without an import, i.e. as <code>type: GriffonExec</code>.
+ */
+public class GriffonLauncherPlugin implements Plugin<Project> {
+    public void apply(Project project) {
+        project.getExtensions().getExtraProperties().set(GriffonExec.class.getSimpleName(), GriffonExec.class);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher.gradle;
+
+import org.codehaus.griffon.launcher.GriffonLauncher;
+import org.codehaus.griffon.launcher.LauncherPool;
+import org.codehaus.griffon.launcher.RootLoader;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gradle.BuildAdapter;
+import org.gradle.BuildResult;
+import org.gradle.api.invocation.Gradle;
+
+/**
+ * Keeps the launchers of a build, so that all the {@link GriffonExec} tasks
+ * of a Griffon project share one warm {@link RootLoader} and
+ * {@link GriffonLauncher}, whichever project of the build they belong to.
+ * Each build gets its own {@link LauncherPool}, released when the build
+ * finishes, so that a Gradle daemon does not keep launchers across builds.
+ * <p>
+ * With <code>--parallel</code>, tasks of different projects may run at the
+ * same time, which the locks of the pool take care of.
+ */
+class LauncherCache {
+    private static final Map<Gradle, LauncherPool> BUILDS = new HashMap<Gradle, LauncherPool>();
+
+    private LauncherCache() {
+    }
+
+    /**
+     * Returns the launchers of the given build, creating the pool on first use.
+     */
+    static LauncherPool forBuild(final Gradle gradle) {
+        synchronized (BUILDS) {
+            LauncherPool pool = BUILDS.get(gradle);
+            if (pool == null) {
+                pool = new LauncherPool(LauncherCache.class.getClassLoader());
+                BUILDS.put(gradle, pool);
+                gradle.addBuildListener(new BuildAdapter() {
+                    @Override
+                    public void buildFinished(BuildResult result) {
+                        release(gradle);
+                    }
+                });
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Releases the launchers of the given build.
+     */
+    static void release(Gradle gradle) {
+        LauncherPool pool;
+        synchronized (BUILDS) {
+            pool = BUILDS.remove(gradle);
+        }
+        if (pool != null) pool.close();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher.gradle
+
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+
+class GriffonExecSpec extends Specification {
+
+    def project = ProjectBuilder.builder().build()
+
+    def cleanup() {
+        LauncherCache.release(project.gradle)
+    }
+
+    def "the plugin makes the task type available to build scripts"() {
+        when:
+        project.apply plugin: 'griffon-launcher'
+        def task = project.task('griffonClean', type: project.GriffonExec)
+
+        then:
+        task instanceof GriffonExec
+        task.baseDir == project.projectDir
+    }
+
+    def "tasks of the same Griffon project share a launcher"() {
+        given:
+        def cache = LauncherCache.forBuild(project.gradle)
+        def classpath = [new File(project.projectDir, "griffon-cli.jar")]
+        def otherDir = new File(project.projectDir, "other")
+
+        when:
+        def first = cache.get(classpath, null, project.projectDir)
+        def second = cache.get(classpath, null, project.projectDir)
+        def other = cache.get(classpath, null, otherDir)
+
+        then:
+        first.is(second)
+        !first.is(other)
+        cache.size() == 2
+    }
+
+    def "launchers are released when the build finishes"() {
+        given:
+        def cache = LauncherCache.forBuild(project.gradle)
+        cache.get([], null, project.projectDir)
+
+        when:
+        LauncherCache.release(project.gradle)
+
+        then:
+        cache.size() == 0
+        !LauncherCache.forBuild(project.gradle).is(cache)
+    }
+}
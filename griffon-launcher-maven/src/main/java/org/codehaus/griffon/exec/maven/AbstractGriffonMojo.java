@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher.maven;
+
+import org.codehaus.griffon.launcher.GriffonLauncher;
+import org.codehaus.griffon.launcher.LauncherPool;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * <p>Base class of the goals that run a Griffon script. Griffon itself is
+ * loaded from the dependencies of the plugin:
+ * <pre>
+ *    &lt;plugin&gt;
+ *        &lt;groupId&gt;org.codehaus.griffon&lt;/groupId&gt;
+ *        &lt;artifactId&gt;griffon-launcher-maven&lt;/artifactId&gt;
+ *        &lt;dependencies&gt;
+ *            &lt;dependency&gt;
+ *                &lt;groupId&gt;org.codehaus.griffon&lt;/groupId&gt;
+ *                &lt;artifactId&gt;griffon-scripts&lt;/artifactId&gt;
+ *                &lt;version&gt;1.1.0&lt;/version&gt;
+ *            &lt;/dependency&gt;
+ *        &lt;/dependencies&gt;
+ *    &lt;/plugin&gt;
+ * </pre>
+ * while the compile, runtime and test classpaths of the module are passed
+ * to Griffon as the dependencies of the project.
+ * </p>
+ * <p>All the goals of a build that run Griffon for the same module with the
+ * same plugin dependencies share one launcher, which stays warm from one
+ * goal to the next (see {@link LauncherCache}). Declaring the plugin with
+ * <code>&lt;extensions&gt;true&lt;/extensions&gt;</code> lets Maven release
+ * the launchers as soon as the build ends.
+ * </p>
+ */
+public abstract class AbstractGriffonMojo extends AbstractMojo {
+    private static final String LAUNCHER_GROUP_ID = "org.codehaus.griffon";
+    private static final String LAUNCHER_ARTIFACT_ID = "griffon-launcher";
+
+    /**
+     * The arguments of the script.
+     *
+     * @parameter expression="${griffon.args}"
+     */
+    private String args;
+
+    /**
+     * The Griffon environment to run the script in.
+     *
+     * @parameter expression="${griffon.env}"
+     */
+    private String environment;
+
+    /**
+     * The Griffon installation, if any.
+     *
+     * @parameter expression="${griffon.home}"
+     */
+    private String griffonHome;
+
+    /**
+     * @parameter expression="${basedir}"
+     * @required
+     * @readonly
+     */
+    private File baseDir;
+
+    /**
+     * @parameter expression="${plugin.artifacts}"
+     * @required
+     * @readonly
+     */
+    private List<Artifact> pluginArtifacts;
+
+    /**
+     * @parameter expression="${project.compileClasspathElements}"
+     * @readonly
+     */
+    private List<String> compileClasspathElements;
+
+    /**
+     * @parameter expression="${project.runtimeClasspathElements}"
+     * @readonly
+     */
+    private List<String> runtimeClasspathElements;
+
+    /**
+     * @parameter expression="${project.testClasspathElements}"
+     * @readonly
+     */
+    private List<String> testClasspathElements;
+
+    /**
+     * The Maven session, whose build scopes the launchers.
+     *
+     * @parameter expression="${session}"
+     * @required
+     * @readonly
+     */
+    private Object session;
+
+    /**
+     * Returns the name of the Griffon script to run.
+     */
+    protected abstract String getScript();
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        String script = getScript();
+        if (script == null) throw new MojoExecutionException("'script' must be set");
+
+        LauncherPool.Entry entry = LauncherCache.forSession(session)
+            .get(getGriffonClasspath(), griffonHome, baseDir);
+        entry.getLock().lock();
+        try {
+            GriffonLauncher launcher = entry.getLauncher();
+            launcher.updateDependencies(toFiles(compileClasspathElements), toFiles(runtimeClasspathElements),
+                toFiles(testClasspathElements));
+
+            String scriptArgs = args == null ? "" : args;
+            int retval = environment == null ?
+                launcher.launch(script, scriptArgs) :
+                launcher.launch(script, scriptArgs, environment);
+            if (retval != 0) {
+                throw new MojoFailureException("Griffon returned non-zero value: " + retval);
+            }
+        } catch (RuntimeException e) {
+            throw new MojoExecutionException("Unable to start Griffon: " + e.getMessage(), e);
+        } finally {
+            entry.getLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the jars Griffon is loaded from: the dependencies of the
+     * plugin, without the plugin and the launcher themselves, which are
+     * already loaded by Maven.
+     */
+    List<File> getGriffonClasspath() {
+        List<File> files = new ArrayList<File>();
+        if (pluginArtifacts == null) return files;
+        for (Artifact artifact : pluginArtifacts) {
+            if (LAUNCHER_GROUP_ID.equals(artifact.getGroupId()) &&
+                artifact.getArtifactId().startsWith(LAUNCHER_ARTIFACT_ID)) continue;
+            if (artifact.getFile() != null) files.add(artifact.getFile());
+        }
+        return files;
+    }
+
+    private static List<File> toFiles(List<String> paths) {
+        if (paths == null) return Collections.emptyList();
+        List<File> files = new ArrayList<File>(paths.size());
+        for (String path : paths) {
+            files.add(new File(path));
+        }
+        return files;
+    }
+}
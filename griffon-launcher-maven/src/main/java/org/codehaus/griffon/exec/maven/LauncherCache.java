@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher.maven;
+
+import org.codehaus.griffon.launcher.GriffonLauncher;
+import org.codehaus.griffon.launcher.LauncherPool;
+import org.codehaus.griffon.launcher.RootLoader;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the launchers of a Maven build, so that all the Griffon goals of
+ * a reactor build share one warm {@link RootLoader} and
+ * {@link GriffonLauncher}, whichever module they run for. Each build gets
+ * its own {@link LauncherPool}.
+ * <p>
+ * Maven loads a plugin once per build, in a class realm shared by all the
+ * modules of the reactor, so the pools live in a static field. They are
+ * keyed by the execution request of the session rather than by the session
+ * itself, since Maven 3 gives each module its own copy of the session
+ * when building with <code>-T</code>, all sharing the request. A pool is
+ * released when the session ends (see {@link SessionEndListener}), which
+ * matters when Maven is embedded or kept running between builds. Maven only
+ * tells plugins declared with <code>&lt;extensions&gt;true&lt;/extensions&gt;</code>
+ * about it, so the pools are also held weakly, and otherwise go away with
+ * their request.
+ * <p>
+ * With <code>-T</code>, goals of different modules may run at the same
+ * time, which the locks of the pool take care of, along with the scoped
+ * system properties of the pooled launchers.
+ */
+class LauncherCache {
+    private static final Map<Object, LauncherPool> BUILDS = new WeakHashMap<Object, LauncherPool>();
+
+    private LauncherCache() {
+    }
+
+    /**
+     * Returns the launchers of the build the given Maven session belongs
+     * to, creating the pool on first use.
+     */
+    static LauncherPool forSession(Object session) {
+        Object build = buildOf(session);
+        synchronized (BUILDS) {
+            LauncherPool pool = BUILDS.get(build);
+            if (pool == null) {
+                pool = new LauncherPool(LauncherCache.class.getClassLoader());
+                BUILDS.put(build, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Releases the launchers of the build the given Maven session belongs to.
+     */
+    static void release(Object session) {
+        LauncherPool pool;
+        synchronized (BUILDS) {
+            pool = BUILDS.remove(buildOf(session));
+        }
+        if (pool != null) pool.close();
+    }
+
+    /**
+     * Returns the execution request of a session, which all the copies of
+     * the session made for a build share, or the session itself with
+     * versions of Maven that do not have one.
+     */
+    private static Object buildOf(Object session) {
+        try {
+            Method getRequest = session.getClass().getMethod("getRequest");
+            Object request = getRequest.invoke(session);
+            if (request != null) return request;
+        } catch (NoSuchMethodException e) {
+            // IGNORE
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to get the request of the Maven session", e);
+        }
+        return session;
+    }
+}
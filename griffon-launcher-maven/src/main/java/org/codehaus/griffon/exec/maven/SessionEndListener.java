@@ -0,0 +1,36 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher.maven;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Releases the launchers of a build when its session ends, as the Gradle
+ * plugin does when the build finishes (see {@link LauncherCache}).
+ * <p>
+ * Maven only looks for lifecycle participants in build extensions, so this
+ * is only called if the plugin is declared with
+ * <code>&lt;extensions&gt;true&lt;/extensions&gt;</code>, and only by Maven
+ * 3.2.1 or later. It is registered in <code>META-INF/plexus/components.xml</code>.
+ */
+public class SessionEndListener extends AbstractMavenLifecycleParticipant {
+
+    @Override
+    public void afterSessionEnd(MavenSession session) {
+        LauncherCache.release(session);
+    }
+}
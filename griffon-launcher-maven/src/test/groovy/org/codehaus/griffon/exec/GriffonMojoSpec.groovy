@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher.maven
+
+import org.apache.maven.artifact.Artifact
+import spock.lang.Specification
+
+class GriffonMojoSpec extends Specification {
+
+    def baseDir = new File(System.getProperty("java.io.tmpdir"))
+    def request = new Object()
+
+    def cleanup() {
+        LauncherCache.release(new FakeSession(request: request))
+    }
+
+    def "goals of the same module share a launcher"() {
+        given:
+        def cache = LauncherCache.forSession(new FakeSession(request: request))
+        def classpath = [new File(baseDir, "griffon-cli.jar")]
+        def otherDir = new File(baseDir, "other")
+
+        when:
+        def first = cache.get(classpath, null, baseDir)
+        def second = cache.get(classpath, null, baseDir)
+        def other = cache.get(classpath, null, otherDir)
+
+        then:
+        first.is(second)
+        !first.is(other)
+        cache.size() == 2
+    }
+
+    def "all the modules of a build share the cache, even with their own copy of the session"() {
+        expect:
+        LauncherCache.forSession(new FakeSession(request: request)).is(LauncherCache.forSession(new FakeSession(request: request)))
+    }
+
+    def "builds running side by side keep their launchers"() {
+        given:
+        def cache = LauncherCache.forSession(new FakeSession(request: request))
+        cache.get([], null, baseDir)
+
+        when:
+        def other = LauncherCache.forSession(new FakeSession(request: new Object()))
+
+        then:
+        !other.is(cache)
+        cache.size() == 1
+    }
+
+    def "the launchers of a build are released when its session ends"() {
+        given:
+        def cache = LauncherCache.forSession(new FakeSession(request: request))
+        cache.get([], null, baseDir)
+
+        when:
+        LauncherCache.release(new FakeSession(request: request))
+
+        then:
+        cache.size() == 0
+        !LauncherCache.forSession(new FakeSession(request: request)).is(cache)
+    }
+
+    def "Griffon is loaded from the plugin dependencies but the launcher"() {
+        given:
+        def mojo = new CompileMojo()
+        mojo.pluginArtifacts = [
+            artifact("org.codehaus.griffon", "griffon-launcher-maven"),
+            artifact("org.codehaus.griffon", "griffon-launcher"),
+            artifact("org.codehaus.griffon", "griffon-cli"),
+            artifact("org.codehaus.groovy", "groovy-all")
+        ]
+
+        expect:
+        mojo.griffonClasspath*.name == ["griffon-cli.jar", "groovy-all.jar"]
+        mojo.script == "Compile"
+    }
+
+    private Artifact artifact(String groupId, String artifactId) {
+        Artifact artifact = Mock()
+        artifact.groupId >> groupId
+        artifact.artifactId >> artifactId
+        artifact.file >> new File(baseDir, artifactId + ".jar")
+        return artifact
+    }
+}
+
+class FakeSession {
+    Object request
+}
@@ -104,10 +104,20 @@ abstract class GriffonLaunchSpec extends Specification {
         def ioSwapper = new SystemOutAndErrSwapper(true, true)
         ioSwapper.swapIn()
         
+        def start = System.currentTimeMillis()
         try {
             launcher.launch(NameUtils.toScriptName(command), args, props)
         } finally {
             (stdout, stderr) = ioSwapper.swapOut().collect { new String(it.toByteArray()) }
+            recordTiming(System.currentTimeMillis() - start)
+        }
+    }
+
+    // Launch timings are reported side by side for each version by the testMatrix task
+    private recordTiming(long millis) {
+        def timings = getSystemProperty("timings")
+        if (timings) {
+            new File(timings) << "$command\t$millis\n"
         }
     }
 
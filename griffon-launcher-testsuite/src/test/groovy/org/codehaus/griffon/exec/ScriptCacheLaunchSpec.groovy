@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import spock.lang.*
+
+class ScriptCacheLaunchSpec extends GriffonLaunchSpec {
+
+    def cacheDir = null
+    def lastRootLoader = null
+    def lastCache = null
+
+    def getRootLoader() {
+        lastRootLoader = super.getRootLoader()
+    }
+
+    def getLauncher() {
+        def launcher = super.getLauncher()
+        if (cacheDir) {
+            launcher.scriptCatalog = launcher.createScriptCatalog(projectFile("target/script-index"))
+            lastCache = launcher.createScriptClassCache(cacheDir)
+            launcher.scriptClassCache = lastCache
+        }
+        launcher
+    }
+
+    def "a second launch loads the project script from the cache instead of compiling it"() {
+        given:
+        newProject "script-cache"
+        projectFile("scripts/Hello.groovy").text = """
+            target(hello: "Says hello") {
+                println "Hello from the script"
+            }
+            setDefaultTarget(hello)
+        """
+        cacheDir = projectFile("target/script-cache")
+
+        when: "a first launcher compiles the script into the cache"
+        launch "hello"
+
+        then:
+        stdout.contains("Hello from the script")
+        lastCache.missCount == 1
+
+        when: "a second launcher, with a fresh root loader, runs it again"
+        launch "hello"
+
+        then: "Griffon asked the root loader for the cached script class rather than compiling it"
+        stdout.contains("Hello from the script")
+        lastCache.missCount == 0
+        lastCache.hitCount == 1
+        lastRootLoader.compiledClassCount > 0
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bridges Griffon's build events to a {@link LauncherEventListener}. The
+ * bridge is the handler of a dynamic proxy implementing Griffon's
+ * <code>GriffonBuildListener</code>, defined in Griffon's class loader:
+ * the proxy only queues the events it receives, and a separate thread
+ * delivers them to the listener in batches.
+ * <p>
+ * The queue is bounded. When it is full, what happens to a new event
+ * depends on the {@link OverflowPolicy}.
+ */
+public class BuildEventBridge implements InvocationHandler {
+
+    public enum OverflowPolicy {
+        /**
+         * The build waits until there is room for the event, so that no
+         * event is lost while events are being delivered.
+         */
+        BLOCK,
+        /**
+         * The oldest queued event is dropped to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Only one event in every <code>sampleRate</code> is kept, replacing
+         * the oldest queued event, while the queue is full. The others are
+         * dropped.
+         */
+        SAMPLE
+    }
+
+    private static final long POLL_MILLIS = 100L;
+
+    private final LauncherEventListener listener;
+    private final BlockingQueue<LauncherEvent> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int maxBatchSize;
+    private final int sampleRate;
+    private final Thread deliveryThread;
+
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param listener       The listener to deliver the events to.
+     * @param capacity       The maximum number of events queued.
+     * @param overflowPolicy What to do with new events when the queue is full.
+     * @param maxBatchSize   The maximum number of events delivered at once.
+     * @param sampleRate     With {@link OverflowPolicy#SAMPLE}, one event in
+     *                       how many to keep when the queue is full.
+     */
+    public BuildEventBridge(LauncherEventListener listener, int capacity, OverflowPolicy overflowPolicy,
+                            int maxBatchSize, int sampleRate) {
+        if (listener == null) throw new IllegalArgumentException("'listener' cannot be null");
+        if (overflowPolicy == null) throw new IllegalArgumentException("'overflowPolicy' cannot be null");
+        if (capacity < 1 || maxBatchSize < 1 || sampleRate < 1) {
+            throw new IllegalArgumentException("'capacity', 'maxBatchSize' and 'sampleRate' must be positive");
+        }
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<LauncherEvent>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.maxBatchSize = maxBatchSize;
+        this.sampleRate = sampleRate;
+
+        deliveryThread = new LauncherThreadFactory("events").newThread(new Runnable() {
+            public void run() {
+                deliver();
+            }
+        });
+        deliveryThread.start();
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("receiveGriffonBuildEvent".equals(name)) {
+            Object[] eventArgs = args.length > 1 && args[1] instanceof Object[] ? (Object[]) args[1] : null;
+            try {
+                enqueue(new LauncherEvent((String) args[0], eventArgs, System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                // Interrupted while waiting for room: drop the event, and
+                // leave the interrupt for the build to act upon.
+                dropped.incrementAndGet();
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("toString".equals(name)) {
+            return "BuildEventBridge(" + listener + ")";
+        }
+        throw new UnsupportedOperationException(method.toString());
+    }
+
+    /**
+     * Queues an event for delivery, applying the overflow policy if the
+     * queue is full.
+     */
+    public void enqueue(LauncherEvent event) throws InterruptedException {
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (queue.offer(event)) return;
+
+        overflows.incrementAndGet();
+        switch (overflowPolicy) {
+            case BLOCK:
+                // Stop waiting if nothing is left to make room, rather than hanging the build.
+                while (!queue.offer(event, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (!deliveryThread.isAlive()) {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                }
+                break;
+            case DROP_OLDEST:
+                replaceOldest(event);
+                break;
+            case SAMPLE:
+                if (overflows.get() % sampleRate == 0) {
+                    replaceOldest(event);
+                } else {
+                    dropped.incrementAndGet();
+                }
+                break;
+        }
+    }
+
+    private void replaceOldest(LauncherEvent event) {
+        while (!queue.offer(event)) {
+            if (queue.poll() != null) dropped.incrementAndGet();
+        }
+    }
+
+    private void deliver() {
+        while (true) {
+            try {
+                LauncherEvent first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) return;
+                    continue;
+                }
+                List<LauncherEvent> batch = new ArrayList<LauncherEvent>();
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                listener.onEvents(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                // A failing listener, even with an Error, must not stop the delivery of later events.
+                failures.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stops accepting events and waits until the queued ones are delivered.
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        deliveryThread.join();
+    }
+
+    /**
+     * Returns how many times an event arrived while the queue was full.
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    /**
+     * Returns the number of events that were dropped, because of the
+     * overflow policy or because the bridge was closed.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of batches the listener failed to process.
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Launches Griffon from a checkpoint of a fully bootstrapped JVM, on JDKs
+ * that support Coordinated Restore at Checkpoint, so that launches skip the
+ * Griffon setup entirely. It is used in three steps:
+ * <pre>
+ *    # 1. Generate the policy that makes the JVM reopen the jars on restore
+ *    java -cp griffon-launcher.jar org.codehaus.griffon.launcher.CheckpointMain \
+ *        policies &lt;classpath&gt; policies.yml
+ *
+ *    # 2. Bootstrap Griffon for the project and checkpoint the JVM
+ *    java -XX:CRaCCheckpointTo=image -Djdk.crac.resource-policies=policies.yml \
+ *        -cp griffon-launcher.jar org.codehaus.griffon.launcher.CheckpointMain \
+ *        checkpoint &lt;griffonHome&gt; &lt;baseDir&gt; &lt;classpath&gt; request.properties
+ *
+ *    # 3. Write the launch request, then restore
+ *    java -XX:CRaCRestoreFrom=image
+ * </pre>
+ * The request file is only read once the JVM is restored. It contains the
+ * <code>script</code> to launch, and optionally its <code>args</code>, its
+ * <code>env</code>, and the <code>timestamp</code> (in milliseconds since
+ * the epoch) the launch was requested at. The JVM exits with the exit code
+ * of the script.
+ * <p>
+ * The <code>cold</code> command takes the same arguments as
+ * <code>checkpoint</code> but launches without checkpointing. Both report how
+ * long it took to get to the end of the first launch, from the start of the
+ * JVM for a cold start and from the request timestamp (or the restore, if
+ * there is none) otherwise, which makes for a simple benchmark of the two.
+ */
+public class CheckpointMain {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && "policies".equals(args[0])) {
+            writeResourcePolicies(toURLs(args[1]), new File(args[2]));
+        } else if (args.length == 5 && ("checkpoint".equals(args[0]) || "cold".equals(args[0]))) {
+            System.exit(run("checkpoint".equals(args[0]), args[1], args[2], toURLs(args[3]), new File(args[4])));
+        } else {
+            System.err.println("Usage: CheckpointMain policies <classpath> <policiesFile>");
+            System.err.println("       CheckpointMain checkpoint|cold <griffonHome> <baseDir> <classpath> <requestFile>");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Writes a CRaC resource policy file making the JVM reopen the given
+     * jars on restore, rather than refusing to checkpoint because they are
+     * open.
+     */
+    public static void writeResourcePolicies(URL[] classpath, File policiesFile) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(policiesFile), "UTF-8");
+        try {
+            boolean first = true;
+            for (URL url : classpath) {
+                File file = ClasspathFingerprint.toFile(url);
+                if (file == null || file.isDirectory()) continue;
+                if (!first) out.write("---\n");
+                out.write("type: file\npath: " + file.getAbsolutePath() + "\naction: reopen\n");
+                first = false;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int run(boolean checkpoint, String griffonHome, String baseDir, URL[] classpath,
+                           File requestFile) throws Exception {
+        long start = System.nanoTime();
+        GriffonLauncher launcher = new GriffonLauncher(new RootLoader(classpath), griffonHome, baseDir);
+        long bootstrapMillis = (System.nanoTime() - start) / 1000000L;
+
+        long since;
+        String from;
+        if (checkpoint) {
+            final long[] restoreTime = new long[1];
+            launcher.addCheckpointResource(new CheckpointResource() {
+                public void beforeCheckpoint() {
+                }
+
+                public void afterRestore() {
+                    restoreTime[0] = System.currentTimeMillis();
+                }
+            });
+            launcher.checkpoint();
+            since = restoreTime[0];
+            from = "restore";
+        } else {
+            since = ManagementFactory.getRuntimeMXBean().getStartTime();
+            from = "cold start";
+        }
+
+        Properties request = load(requestFile);
+        String script = request.getProperty("script");
+        if (script == null) throw new IllegalArgumentException("No 'script' in " + requestFile);
+        if (checkpoint && request.getProperty("timestamp") != null) {
+            since = Long.parseLong(request.getProperty("timestamp"));
+            from = "request";
+        }
+
+        long launchStart = System.nanoTime();
+        String env = request.getProperty("env");
+        int exitCode = env == null ?
+            launcher.launch(script, request.getProperty("args", "")) :
+            launcher.launch(script, request.getProperty("args", ""), env);
+        long launchMillis = (System.nanoTime() - launchStart) / 1000000L;
+
+        StringBuilder report = new StringBuilder();
+        report.append(from).append(" to first launch: ").append(System.currentTimeMillis() - since).append(" ms (");
+        if (!checkpoint) report.append("bootstrap ").append(bootstrapMillis).append(" ms, ");
+        report.append("launch ").append(launchMillis).append(" ms)");
+        System.out.println(report);
+        return exitCode;
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    private static URL[] toURLs(String classpath) throws MalformedURLException {
+        List<URL> urls = new ArrayList<URL>();
+        for (String path : classpath.split(File.pathSeparator)) {
+            if (path.length() > 0) urls.add(new File(path).toURI().toURL());
+        }
+        return urls.toArray(new URL[urls.size()]);
+    }
+}
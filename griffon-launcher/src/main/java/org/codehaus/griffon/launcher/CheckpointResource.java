@@ -0,0 +1,29 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+/**
+ * Something that holds files, sockets or other operating system resources
+ * that cannot be part of a checkpoint of the JVM, and must therefore be
+ * closed before it is taken and reopened once it is restored.
+ *
+ * @see GriffonLauncher#addCheckpointResource(CheckpointResource)
+ */
+public interface CheckpointResource {
+    void beforeCheckpoint() throws Exception;
+
+    void afterRestore() throws Exception;
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Speeds up the construction of a {@link GriffonLauncher} by replaying a
+ * recorded list of classes on a background fork-join pool, so that they are
+ * already defined in the {@link RootLoader} by the time the launching thread
+ * asks for them.
+ * <p>
+ * The first time it is used (or whenever the classpath of the loader no longer
+ * matches the recorded fingerprint) the preloader records the classes defined
+ * by the loader between {@link #start()} and {@link #finish()}, and writes
+ * them to the class list file. Typical usage:
+ * <pre>
+ *    RootLoader loader = new RootLoader(urls);
+ *    ClassListPreloader preloader = new ClassListPreloader(loader, new File(cacheDir, "Compile.classlist"));
+ *    preloader.start();
+ *    GriffonLauncher launcher = new GriffonLauncher(loader, griffonHome, baseDir);
+ *    launcher.launch("Compile");
+ *    preloader.finish();
+ *    System.out.println(preloader.getReport());
+ * </pre>
+ */
+public class ClassListPreloader {
+    private static final String FINGERPRINT = "fingerprint ";
+    private static final String ELAPSED = "elapsed ";
+
+    /**
+     * Number of classes each fork-join leaf task loads sequentially.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private final RootLoader classLoader;
+    private final File classListFile;
+    private final String fingerprint;
+
+    private ForkJoinPool pool;
+    private boolean recording;
+    private long startTime;
+    private long elapsed = -1;
+    private long recordedElapsed = -1;
+    private int classCount;
+    private final AtomicInteger preloaded = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * @param classLoader   The loader to record classes from and preload them into.
+     * @param classListFile The file the class list is recorded in.
+     */
+    public ClassListPreloader(RootLoader classLoader, File classListFile) {
+        this.classLoader = classLoader;
+        this.classListFile = classListFile;
+        this.fingerprint = ClasspathFingerprint.of(classLoader.getURLs());
+    }
+
+    /**
+     * Starts replaying the recorded class list in the background if there is
+     * a valid one, otherwise starts recording. Returns immediately.
+     */
+    public void start() {
+        if (startTime != 0) throw new IllegalStateException("Preloader has already been started");
+        startTime = System.currentTimeMillis();
+
+        List<String> classNames = readClassList();
+        if (classNames == null) {
+            recording = true;
+            classLoader.startRecording();
+            return;
+        }
+
+        classCount = classNames.size();
+        int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        pool = new ForkJoinPool(parallelism);
+        pool.execute(new PreloadTask(classNames, 0, classNames.size()));
+    }
+
+    /**
+     * Marks the end of the work the class list covers. When recording, the
+     * class list file is (re)written; when replaying, any preloading still in
+     * progress is abandoned.
+     */
+    public void finish() {
+        if (startTime == 0) throw new IllegalStateException("Preloader has not been started");
+        elapsed = System.currentTimeMillis() - startTime;
+
+        if (recording) {
+            List<String> classNames = classLoader.stopRecording();
+            classCount = classNames.size();
+            recordedElapsed = elapsed;
+            writeClassList(classNames);
+        } else if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops recording or replaying without writing the class list, e.g.
+     * because the work it was meant to cover failed.
+     */
+    public void cancel() {
+        if (startTime == 0) throw new IllegalStateException("Preloader has not been started");
+        elapsed = System.currentTimeMillis() - startTime;
+
+        if (recording) {
+            classLoader.stopRecording();
+        } else if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if this run is recording a new class list rather
+     * than replaying an existing one.
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * Returns the number of classes recorded, or to be replayed.
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Returns the number of classes successfully preloaded so far.
+     */
+    public int getPreloadedCount() {
+        return preloaded.get();
+    }
+
+    /**
+     * Returns the number of recorded classes that could not be preloaded.
+     */
+    public int getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the wall time saved by this run compared to the run that
+     * recorded the class list, in milliseconds. Only meaningful after
+     * {@link #finish()} has been called on a replaying preloader.
+     */
+    public long getSavedMillis() {
+        if (recording || elapsed < 0 || recordedElapsed < 0) return 0;
+        return recordedElapsed - elapsed;
+    }
+
+    /**
+     * Returns a one line summary of this run, suitable for logging.
+     */
+    public String getReport() {
+        if (recording) {
+            return "Recorded " + classCount + " classes in " + elapsed + " ms to " + classListFile;
+        }
+        return "Preloaded " + preloaded.get() + " of " + classCount + " classes (" + failures.get() +
+            " failed) in " + elapsed + " ms, recorded run took " + recordedElapsed + " ms, saved " +
+            getSavedMillis() + " ms";
+    }
+
+    private List<String> readClassList() {
+        if (!classListFile.isFile()) return null;
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(classListFile), "UTF-8"));
+            String line = reader.readLine();
+            if (line == null || !line.equals(FINGERPRINT + fingerprint)) return null;
+
+            line = reader.readLine();
+            if (line == null || !line.startsWith(ELAPSED)) return null;
+            recordedElapsed = Long.parseLong(line.substring(ELAPSED.length()));
+
+            List<String> classNames = new ArrayList<String>();
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) classNames.add(line);
+            }
+            return classNames;
+        } catch (IOException e) {
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        } finally {
+            close(reader);
+        }
+    }
+
+    private void writeClassList(List<String> classNames) {
+        File dir = classListFile.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new RuntimeException("Unable to create directory " + dir);
+        }
+
+        // Write to a temporary file first so that concurrent readers never
+        // see a partially written list.
+        File tmp = new File(dir, classListFile.getName() + ".tmp" + System.nanoTime());
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+            writer.write(FINGERPRINT + fingerprint + "\n");
+            writer.write(ELAPSED + elapsed + "\n");
+            for (String name : classNames) {
+                writer.write(name);
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+
+            if (!tmp.renameTo(classListFile)) {
+                classListFile.delete();
+                if (!tmp.renameTo(classListFile)) {
+                    throw new IOException("Unable to rename " + tmp + " to " + classListFile);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            close(writer);
+            tmp.delete();
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Loads a range of the class list, splitting it in half until it is
+     * small enough to load sequentially.
+     */
+    private class PreloadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> classNames;
+        private final int from;
+        private final int to;
+
+        PreloadTask(List<String> classNames, int from, int to) {
+            this.classNames = classNames;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PreloadTask(classNames, from, middle), new PreloadTask(classNames, middle, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++) {
+                if (Thread.currentThread().isInterrupted()) return;
+                try {
+                    Class.forName(classNames.get(i), false, classLoader);
+                    preloaded.incrementAndGet();
+                } catch (ClassNotFoundException e) {
+                    failures.incrementAndGet();
+                } catch (LinkageError e) {
+                    failures.incrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+/**
+ * Computes a cheap fingerprint for a classpath. The fingerprint covers the
+ * order of the entries and, for local files, their size and last modification
+ * time, so it changes whenever a jar is added, removed, reordered or rebuilt.
+ * Directories are walked, since their own modification time does not change
+ * when a nested class file does: the fingerprint covers the number, total
+ * size and latest modification time of the files and directories in them.
+ * <p>
+ * File contents are deliberately not read: the fingerprint is meant to be
+ * computed on every launch.
+ */
+public final class ClasspathFingerprint {
+
+    private ClasspathFingerprint() {
+    }
+
+    /**
+     * Returns the fingerprint of the given classpath as a hex string.
+     */
+    public static String of(URL[] urls) {
+        return of(urls, true);
+    }
+
+    /**
+     * Returns the fingerprint of the given classpath as a hex string.
+     */
+    public static String of(Collection<File> files) {
+        return of(toURLs(files), true);
+    }
+
+    /**
+     * Returns a fingerprint of the given files that only covers the
+     * directories themselves, not what is nested in them. Enough to notice
+     * that files were added to or removed from a directory.
+     */
+    static String shallowOf(Collection<File> files) {
+        return of(toURLs(files), false);
+    }
+
+    private static String of(URL[] urls, boolean deep) {
+        MessageDigest digest = newDigest();
+        for (URL url : urls) {
+            update(digest, url.toExternalForm());
+            File file = toFile(url);
+            if (file != null) {
+                if (deep && file.isDirectory()) {
+                    long[] stamp = new long[3];
+                    stampTree(file, stamp);
+                    update(digest, ":" + stamp[0] + ":" + stamp[1] + ":" + stamp[2]);
+                } else {
+                    update(digest, ":" + file.length() + ":" + file.lastModified());
+                }
+            }
+            update(digest, "\n");
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Accumulates the count, total size and latest modification time of a
+     * directory tree. Directories count too, so that deletions show.
+     */
+    private static void stampTree(File dir, long[] stamp) {
+        stamp[0]++;
+        stamp[2] = Math.max(stamp[2], dir.lastModified());
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                stampTree(file, stamp);
+            } else {
+                stamp[0]++;
+                stamp[1] += file.length();
+                stamp[2] = Math.max(stamp[2], file.lastModified());
+            }
+        }
+    }
+
+    private static URL[] toURLs(Collection<File> files) {
+        URL[] urls = new URL[files.size()];
+        int i = 0;
+        for (File file : files) {
+            urls[i++] = toURL(file);
+        }
+        return urls;
+    }
+
+    /**
+     * Returns a hash of the content of the given file as a hex string.
+     * Unlike the classpath fingerprints this reads the whole file.
+     */
+    public static String contentHash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the local file an URL points to, or <code>null</code> if
+     * the URL does not use the <code>file</code> protocol.
+     */
+    static File toFile(URL url) {
+        if (!"file".equals(url.getProtocol())) return null;
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return new File(url.getPath());
+        } catch (IllegalArgumentException e) {
+            return new File(url.getPath());
+        }
+    }
+
+    static URL toURL(File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder buf = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16))
+               .append(Character.forDigit(b & 0xf, 16));
+        }
+        return buf.toString();
+    }
+
+    private static void update(MessageDigest digest, String str) {
+        try {
+            digest.update(str.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
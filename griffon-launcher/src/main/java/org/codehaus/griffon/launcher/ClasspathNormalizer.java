@@ -0,0 +1,184 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cleans up a classpath before it is handed to a {@link RootLoader} or to
+ * the build settings, since every redundant entry adds to the cost of each
+ * class lookup that misses it. The normalizer:
+ * <ul>
+ * <li>canonicalizes paths, so the same jar reached through a symlink or
+ * a relative path only appears once;</li>
+ * <li>removes jars whose content is identical to an earlier entry, e.g. the
+ * same artifact copied into two Ivy caches;</li>
+ * <li>reports, but keeps, different versions of the same artifact.</li>
+ * </ul>
+ * The order of the remaining entries is preserved, so the first entry still
+ * wins. Jars are only hashed when another jar has exactly the same size.
+ */
+public class ClasspathNormalizer {
+    private static final Pattern VERSIONED_JAR = Pattern.compile("^(.+?)[-_](\\d[^/]*)\\.jar$");
+
+    private final List<File> files = new ArrayList<File>();
+    private final List<String> duplicates = new ArrayList<String>();
+    private final Map<String, List<File>> conflicts = new LinkedHashMap<String, List<File>>();
+
+    /**
+     * Normalizes the given classpath entries.
+     */
+    public ClasspathNormalizer(Collection<File> entries) {
+        Set<File> canonical = new LinkedHashSet<File>();
+        for (File entry : entries) {
+            File file = canonicalize(entry);
+            if (!canonical.add(file)) {
+                duplicates.add(entry + " (same path as " + file + ")");
+            }
+        }
+
+        removeDuplicateContent(canonical);
+        files.addAll(canonical);
+        findConflicts();
+    }
+
+    /**
+     * Normalizes the given classpath URLs. URLs that do not point to local
+     * files are not supported.
+     */
+    public static ClasspathNormalizer of(URL[] urls) {
+        List<File> entries = new ArrayList<File>(urls.length);
+        for (URL url : urls) {
+            File file = ClasspathFingerprint.toFile(url);
+            if (file == null) throw new IllegalArgumentException("Not a local file: " + url);
+            entries.add(file);
+        }
+        return new ClasspathNormalizer(entries);
+    }
+
+    /**
+     * Returns the normalized classpath, in its original order.
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * Returns the normalized classpath as URLs, in its original order.
+     */
+    public URL[] getURLs() {
+        URL[] urls = new URL[files.size()];
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = ClasspathFingerprint.toURL(files.get(i));
+        }
+        return urls;
+    }
+
+    /**
+     * Returns a description of each entry that was removed.
+     */
+    public List<String> getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Returns the jars of each artifact that is on the classpath in more than
+     * one version, keyed by artifact name.
+     */
+    public Map<String, List<File>> getConflicts() {
+        return conflicts;
+    }
+
+    private void removeDuplicateContent(Set<File> entries) {
+        // Only jars of equal size can have the same content.
+        Map<Long, List<File>> bySize = new HashMap<Long, List<File>>();
+        for (File file : entries) {
+            if (!file.isFile()) continue;
+            List<File> sameSize = bySize.get(file.length());
+            if (sameSize == null) {
+                sameSize = new ArrayList<File>();
+                bySize.put(file.length(), sameSize);
+            }
+            sameSize.add(file);
+        }
+
+        Map<String, File> byHash = new HashMap<String, File>();
+        for (Iterator<File> i = entries.iterator(); i.hasNext();) {
+            File file = i.next();
+            if (!file.isFile() || bySize.get(file.length()).size() < 2) continue;
+
+            String hash = contentHash(file);
+            File original = byHash.get(hash);
+            if (original == null) {
+                byHash.put(hash, file);
+            } else {
+                duplicates.add(file + " (same content as " + original + ")");
+                i.remove();
+            }
+        }
+    }
+
+    private String contentHash(File file) {
+        try {
+            return ClasspathFingerprint.contentHash(file);
+        } catch (IOException e) {
+            // Unreadable, so treat it as unique and let the class loader complain.
+            return file.getPath();
+        }
+    }
+
+    private void findConflicts() {
+        Map<String, List<File>> byArtifact = new LinkedHashMap<String, List<File>>();
+        for (File file : files) {
+            Matcher matcher = VERSIONED_JAR.matcher(file.getName());
+            if (!matcher.matches()) continue;
+
+            List<File> versions = byArtifact.get(matcher.group(1));
+            if (versions == null) {
+                versions = new ArrayList<File>();
+                byArtifact.put(matcher.group(1), versions);
+            }
+            versions.add(file);
+        }
+
+        for (Map.Entry<String, List<File>> artifact : byArtifact.entrySet()) {
+            if (artifact.getValue().size() > 1) {
+                conflicts.put(artifact.getKey(), artifact.getValue());
+            }
+        }
+    }
+
+    private static File canonicalize(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+}
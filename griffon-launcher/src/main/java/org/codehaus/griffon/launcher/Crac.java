@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Access to Coordinated Restore at Checkpoint, through reflection so that
+ * the launcher does not depend on it. The portable <code>org.crac</code>
+ * API is used if the host provides it, <code>jdk.crac</code> otherwise.
+ */
+final class Crac {
+    private static final String[] PACKAGES = {"org.crac", "jdk.crac"};
+
+    // CRaC only keeps weak references to resources.
+    private static final List<Object> RESOURCES = new ArrayList<Object>();
+
+    private static final String PACKAGE = findPackage();
+
+    private Crac() {
+    }
+
+    static boolean isAvailable() {
+        return PACKAGE != null;
+    }
+
+    static void register(final CheckpointResource resource) {
+        Class<?> resourceType = type("Resource");
+        Object proxy = Proxy.newProxyInstance(resourceType.getClassLoader(), new Class[]{resourceType},
+            new InvocationHandler() {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if ("beforeCheckpoint".equals(name)) {
+                        resource.beforeCheckpoint();
+                        return null;
+                    } else if ("afterRestore".equals(name)) {
+                        resource.afterRestore();
+                        return null;
+                    } else if ("equals".equals(name)) {
+                        return proxy == args[0];
+                    } else if ("hashCode".equals(name)) {
+                        return System.identityHashCode(proxy);
+                    }
+                    return "CheckpointResource(" + resource + ")";
+                }
+            });
+
+        synchronized (RESOURCES) {
+            RESOURCES.add(proxy);
+        }
+        try {
+            Object context = type("Core").getMethod("getGlobalContext").invoke(null);
+            type("Context").getMethod("register", resourceType).invoke(context, proxy);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("Unable to register " + resource, e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to register " + resource, e);
+        }
+    }
+
+    /**
+     * Checkpoints the JVM, which exits, and returns once it is restored.
+     */
+    static void checkpointRestore() throws Exception {
+        try {
+            type("Core").getMethod("checkpointRestore").invoke(null);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw (Error) cause;
+        }
+    }
+
+    private static String findPackage() {
+        for (String pkg : PACKAGES) {
+            try {
+                Class.forName(pkg + ".Core");
+                return pkg;
+            } catch (ClassNotFoundException e) {
+                // try the next one
+            } catch (LinkageError e) {
+                // try the next one
+            }
+        }
+        return null;
+    }
+
+    private static Class<?> type(String name) {
+        if (PACKAGE == null) {
+            throw new UnsupportedOperationException("Coordinated Restore at Checkpoint is not available in this JVM");
+        }
+        try {
+            return Class.forName(PACKAGE + "." + name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides, for each class a {@link RootLoader} is asked for, where it should
+ * look for it. By default a RootLoader looks in its own classpath first and
+ * then asks its parent, but packages (or single classes) can be:
+ * <ul>
+ * <li><em>parent first</em>, to share classes such as XML, Swing or logging
+ * APIs with the host instead of loading a second copy;</li>
+ * <li><em>child only</em>, to make sure they never leak in from the host;</li>
+ * <li><em>blocked</em>, so that they cannot be loaded at all.</li>
+ * </ul>
+ * A rule applies to the named package or class and everything nested in it,
+ * the most specific rule winning: <code>javax.xml</code> covers
+ * <code>javax.xml.parsers.DocumentBuilder</code> but not
+ * <code>javax.xmlx.Foo</code>.
+ * <p>
+ * The rules are compiled into a prefix trie, so deciding for a class is a
+ * single walk over its name that does not allocate. The policy may be
+ * changed at any time; the change only affects classes that have not been
+ * loaded yet.
+ */
+public class DelegationPolicy {
+
+    public enum Rule {
+        CHILD_FIRST, PARENT_FIRST, CHILD_ONLY, BLOCKED
+    }
+
+    private final Map<String, Rule> rules = new LinkedHashMap<String, Rule>();
+    private volatile Node root = new Node();
+
+    /**
+     * Creates a policy with the default rules: the <code>java</code> packages,
+     * which only the bootstrap loader can define, and
+     * <code>org.w3c.dom.Node</code> are parent first.
+     */
+    public DelegationPolicy() {
+        parentFirst("java");
+        parentFirst("org.w3c.dom.Node");
+    }
+
+    /**
+     * Makes the given packages or classes parent first.
+     */
+    public DelegationPolicy parentFirst(String... names) {
+        return add(Rule.PARENT_FIRST, names);
+    }
+
+    /**
+     * Makes the given packages or classes child only.
+     */
+    public DelegationPolicy childOnly(String... names) {
+        return add(Rule.CHILD_ONLY, names);
+    }
+
+    /**
+     * Blocks the given packages or classes.
+     */
+    public DelegationPolicy blocked(String... names) {
+        return add(Rule.BLOCKED, names);
+    }
+
+    /**
+     * Returns the rule that applies to the named class.
+     */
+    public Rule ruleFor(String className) {
+        Node node = root;
+        Rule rule = Rule.CHILD_FIRST;
+        int length = className.length();
+        for (int i = 0; ; i++) {
+            if (node.rule != null && (i == length || isSeparator(className.charAt(i)))) {
+                rule = node.rule;
+            }
+            if (i == length) return rule;
+            node = node.child(className.charAt(i));
+            if (node == null) return rule;
+        }
+    }
+
+    /**
+     * Returns the rules of this policy, keyed by package or class name.
+     */
+    public synchronized Map<String, Rule> getRules() {
+        return new LinkedHashMap<String, Rule>(rules);
+    }
+
+    private synchronized DelegationPolicy add(Rule rule, String... names) {
+        for (String name : names) {
+            String prefix = normalize(name);
+            if (prefix.length() > 0) rules.put(prefix, rule);
+        }
+
+        // Rebuild the trie and publish it in one go, so that concurrent
+        // lookups never see a partially built one.
+        Node newRoot = new Node();
+        for (Map.Entry<String, Rule> entry : rules.entrySet()) {
+            Node node = newRoot;
+            for (char c : entry.getKey().toCharArray()) {
+                node = node.getOrAddChild(c);
+            }
+            node.rule = entry.getValue();
+        }
+        root = newRoot;
+        return this;
+    }
+
+    private static String normalize(String name) {
+        String prefix = name.trim();
+        if (prefix.endsWith(".*")) prefix = prefix.substring(0, prefix.length() - 2);
+        while (prefix.endsWith(".")) prefix = prefix.substring(0, prefix.length() - 1);
+        return prefix;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '.' || c == '$';
+    }
+
+    @Override
+    public String toString() {
+        return "DelegationPolicy" + getRules();
+    }
+
+    /**
+     * A trie node, whose children are kept in arrays sorted by character so
+     * that lookups are a binary search.
+     */
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private Rule rule;
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) return children[index];
+
+            int insertion = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertion);
+            System.arraycopy(children, 0, newChildren, 0, insertion);
+            newKeys[insertion] = c;
+            newChildren[insertion] = new Node();
+            System.arraycopy(keys, insertion, newKeys, insertion + 1, keys.length - insertion);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[insertion];
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Flattens the jars of a classpath into a single, uncompressed archive that
+ * can be given to a {@link RootLoader} in place of the originals. Class
+ * lookups then only have to search one central directory, and class bytes
+ * are read without being inflated.
+ * <p>
+ * Archives are cached in a directory, keyed by the fingerprint of the jars
+ * they were built from, so they are only rebuilt when one of those jars
+ * changes. When several jars contain the same entry the first one wins, as
+ * it would on the original classpath, except for service provider files
+ * (<code>META-INF/services/*</code>) which are concatenated. Signature files
+ * are dropped. The archive keeps the main attributes of the first jar's
+ * manifest, and each package gets a manifest section with the version
+ * attributes of the jar it comes from, so that
+ * {@link Package#getImplementationVersion()} and friends still answer as they
+ * would on the original classpath.
+ * <p>
+ * Only the leading jars of the classpath are flattened: from the first entry
+ * that is not a jar (typically a classes directory) onwards, the classpath
+ * is kept as is, so the lookup order never changes. Groovy extension module
+ * descriptors are properties files that Groovy reads from every jar, and
+ * cannot be merged, so flattening also stops at the second jar that has
+ * one.
+ */
+public class FlattenedClasspath {
+    private static final String SERVICES = "META-INF/services/";
+    private static final String[] EXTENSION_MODULES = {
+        "META-INF/services/org.codehaus.groovy.runtime.ExtensionModule",
+        "META-INF/groovy/org.codehaus.groovy.runtime.ExtensionModule"
+    };
+    private static final Attributes.Name[] VERSION_ATTRIBUTES = {
+        Attributes.Name.SPECIFICATION_TITLE, Attributes.Name.SPECIFICATION_VERSION,
+        Attributes.Name.SPECIFICATION_VENDOR, Attributes.Name.IMPLEMENTATION_TITLE,
+        Attributes.Name.IMPLEMENTATION_VERSION, Attributes.Name.IMPLEMENTATION_VENDOR
+    };
+
+    private final File cacheDir;
+
+    /**
+     * @param cacheDir The directory the flattened archives are kept in. It
+     *                 may be shared between classpaths and processes.
+     */
+    public FlattenedClasspath(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Returns a classpath equivalent to the given one, where the leading jars
+     * have been replaced by a single flattened archive. The archive is built
+     * if it is not in the cache yet.
+     */
+    public URL[] flatten(URL[] urls) {
+        List<File> jars = new ArrayList<File>();
+        for (URL url : urls) {
+            File file = ClasspathFingerprint.toFile(url);
+            if (file == null || !file.isFile() || !file.getName().endsWith(".jar")) break;
+            jars.add(file);
+        }
+        if (jars.size() < 2) return urls;
+
+        // The archive name records how many of the jars it holds, so that
+        // they need not be opened again to find out.
+        String key = ClasspathFingerprint.of(jars);
+        File archive = findArchive(key);
+        int count;
+        if (archive != null) {
+            count = jarCount(key, archive);
+        } else {
+            try {
+                count = flattenableJars(jars);
+                if (count < 2) return urls;
+                archive = new File(cacheDir, key + "-" + count + ".jar");
+                build(jars.subList(0, count), archive);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to flatten classpath into " + cacheDir, e);
+            }
+        }
+
+        List<URL> flattened = new ArrayList<URL>();
+        flattened.add(ClasspathFingerprint.toURL(archive));
+        flattened.addAll(Arrays.asList(urls).subList(count, urls.length));
+        return flattened.toArray(new URL[flattened.size()]);
+    }
+
+    private File findArchive(String key) {
+        File[] files = cacheDir.listFiles();
+        if (files == null) return null;
+        for (File file : files) {
+            if (file.getName().startsWith(key + "-") && jarCount(key, file) > 0) return file;
+        }
+        return null;
+    }
+
+    private static int jarCount(String key, File archive) {
+        String name = archive.getName();
+        if (!name.endsWith(".jar")) return -1;
+        try {
+            return Integer.parseInt(name.substring(key.length() + 1, name.length() - ".jar".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns how many of the leading jars can be flattened together: all of
+     * them, unless a second one has a Groovy extension module descriptor.
+     */
+    private static int flattenableJars(List<File> jars) throws IOException {
+        boolean extensionModule = false;
+        for (int i = 0; i < jars.size(); i++) {
+            JarFile jarFile = new JarFile(jars.get(i));
+            try {
+                for (String descriptor : EXTENSION_MODULES) {
+                    if (jarFile.getEntry(descriptor) == null) continue;
+                    if (extensionModule) return i;
+                    extensionModule = true;
+                    break;
+                }
+            } finally {
+                jarFile.close();
+            }
+        }
+        return jars.size();
+    }
+
+    private void build(List<File> jars, File archive) throws IOException {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Unable to create directory " + cacheDir);
+        }
+
+        // Build into a temporary file and rename it, so that concurrent
+        // builds of the same archive never expose a partial one.
+        File tmp = File.createTempFile("flattening", ".tmp", cacheDir);
+        Set<String> written = new HashSet<String>();
+        Map<String, ByteArrayOutputStream> services = new LinkedHashMap<String, ByteArrayOutputStream>();
+        JarOutputStream out = null;
+        try {
+            out = new JarOutputStream(new FileOutputStream(tmp), mergeManifests(jars));
+            written.add(JarFile.MANIFEST_NAME);
+
+            for (File jar : jars) {
+                JarFile jarFile = new JarFile(jar);
+                try {
+                    for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                        JarEntry entry = entries.nextElement();
+                        String name = entry.getName();
+                        if (isSignature(name)) continue;
+
+                        if (name.startsWith(SERVICES) && !entry.isDirectory() && !name.equals(EXTENSION_MODULES[0])) {
+                            ByteArrayOutputStream service = services.get(name);
+                            if (service == null) {
+                                service = new ByteArrayOutputStream();
+                                services.put(name, service);
+                            }
+                            byte[] bytes = read(jarFile, entry);
+                            service.write(bytes);
+                            if (bytes.length > 0 && bytes[bytes.length - 1] != '\n') service.write('\n');
+                            continue;
+                        }
+
+                        if (!written.add(name)) continue;
+                        writeStored(out, name, entry.isDirectory() ? new byte[0] : read(jarFile, entry));
+                    }
+                } finally {
+                    jarFile.close();
+                }
+            }
+
+            for (Map.Entry<String, ByteArrayOutputStream> service : services.entrySet()) {
+                writeStored(out, service.getKey(), service.getValue().toByteArray());
+            }
+
+            out.close();
+            out = null;
+
+            if (!tmp.renameTo(archive) && !archive.isFile()) {
+                throw new IOException("Unable to rename " + tmp + " to " + archive);
+            }
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Builds the manifest of the archive: the main attributes of the first
+     * jar, and a section per package with the version attributes of the
+     * first jar that contains classes in it.
+     */
+    private static Manifest mergeManifests(List<File> jars) throws IOException {
+        Manifest merged = new Manifest();
+        Set<String> packages = new HashSet<String>();
+        for (int i = 0; i < jars.size(); i++) {
+            JarFile jarFile = new JarFile(jars.get(i));
+            try {
+                Manifest manifest = jarFile.getManifest();
+                if (i == 0 && manifest != null) {
+                    merged.getMainAttributes().putAll(manifest.getMainAttributes());
+                    merged.getMainAttributes().remove(Attributes.Name.CLASS_PATH);
+                }
+                for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                    String name = entries.nextElement().getName();
+                    int slash = name.lastIndexOf('/');
+                    if (!name.endsWith(".class") || slash < 0) continue;
+                    String path = name.substring(0, slash + 1);
+                    if (!packages.add(path) || manifest == null) continue;
+
+                    Attributes section = versionAttributes(manifest, path);
+                    if (!section.isEmpty()) merged.getEntries().put(path, section);
+                }
+            } finally {
+                jarFile.close();
+            }
+        }
+        merged.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        merged.getMainAttributes().putValue("Created-By", "griffon-launcher");
+        return merged;
+    }
+
+    /**
+     * Returns the version attributes of a package, as the class loader would
+     * read them: from the package's own section, then the main attributes.
+     */
+    private static Attributes versionAttributes(Manifest manifest, String path) {
+        Attributes section = new Attributes();
+        Attributes own = manifest.getAttributes(path);
+        for (Attributes.Name name : VERSION_ATTRIBUTES) {
+            String value = own == null ? null : own.getValue(name);
+            if (value == null) value = manifest.getMainAttributes().getValue(name);
+            if (value != null) section.put(name, value);
+        }
+        return section;
+    }
+
+    private static void writeStored(JarOutputStream out, String name, byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        JarEntry entry = new JarEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+
+        out.putNextEntry(entry);
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static byte[] read(JarFile jarFile, JarEntry entry) throws IOException {
+        InputStream in = jarFile.getInputStream(entry);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static boolean isSignature(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) > -1) return false;
+        String upper = name.toUpperCase();
+        return upper.equals(JarFile.MANIFEST_NAME) || upper.equals("META-INF/INDEX.LIST") ||
+               upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA") || upper.endsWith(".EC");
+    }
+}
@@ -15,11 +15,26 @@
 package org.codehaus.griffon.launcher;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URL;
 import java.net.URLClassLoader;
 import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Helper class that allows a client to bootstrap the Griffon build system
@@ -31,9 +46,35 @@ import java.util.Locale;
  * @author Peter Ledbrook
  */
 public class GriffonLauncher {
+    private static final String BUILD_SETTINGS = "griffon.util.BuildSettings";
+    private static final String BUILD_SETTINGS_HOLDER = "griffon.util.BuildSettingsHolder";
+    private static final String SCRIPT_RUNNER = "org.codehaus.griffon.cli.GriffonScriptRunner";
+    private static final String GRIFFON_SETUP = "org.codehaus.griffon.cli.GriffonSetup";
+
     private ClassLoader classLoader;
+    private File griffonHomeFile;
+    private File baseDirFile;
     private Object settings;
     private Object scriptRunner;
+    private boolean normalizeDependencies;
+    private ScriptCatalog scriptCatalog;
+    private ScriptClassCache scriptClassCache;
+    private boolean scopedSystemProperties;
+    private final Map<String, String> systemProperties = new ConcurrentHashMap<String, String>();
+    private volatile LauncherMetrics metrics;
+    private RootLoader projectLoader;
+    private final Map<URL, String> projectJars = new LinkedHashMap<URL, String>();
+    private final Map<String, String> contentHashes = new HashMap<String, String>();
+
+    // Only used in lazy mode, until the bootstrap completes.
+    private ExecutorService bootstrapExecutor;
+    private Future<Object> settingsFuture;
+    private Future<Class<?>> scriptRunnerClassFuture;
+    private Future<Class<?>> griffonSetupClassFuture;
+    private final Map<String, Object[]> pendingSettings = new LinkedHashMap<String, Object[]>();
+    private final List<Object> pendingListeners = new ArrayList<Object>();
+
+    private final List<BuildEventBridge> eventBridges = new ArrayList<BuildEventBridge>();
 
     /**
      * Creates a helper that loads the Griffon build system with the given
@@ -71,45 +112,185 @@ public class GriffonLauncher {
      * @param baseDir     The path to the Griffon project to launch the command on
      */
     public GriffonLauncher(ClassLoader classLoader, String griffonHome, String baseDir) {
+        this(classLoader, griffonHome, baseDir, false);
+    }
+
+    /**
+     * Creates a helper that loads the Griffon build system with the given
+     * class loader. Ideally, the class loader should be an instance of
+     * {@link RootLoader}.
+     * <p>
+     * In lazy mode the constructor returns straight away: the Griffon
+     * classes are resolved and the build settings created on background
+     * threads, while the rest of the bootstrap (script runner setup and
+     * <code>GriffonSetup</code>) is deferred until the first launch, or an
+     * explicit call to {@link #bootstrap()}. Settings applied in the meantime
+     * are buffered and applied in one pass before the script runner is set up.
+     *
+     * @param classLoader The class loader that will be used to load Griffon.
+     * @param griffonHome Location of a local Griffon installation.
+     * @param baseDir     The path to the Griffon project to launch the command on
+     * @param lazy        Whether to defer the expensive part of the bootstrap.
+     */
+    public GriffonLauncher(ClassLoader classLoader, String griffonHome, String baseDir, boolean lazy) {
+        this.classLoader = classLoader;
+        this.griffonHomeFile = griffonHome == null ? null : new File(griffonHome);
+        this.baseDirFile = baseDir == null ? null : new File(baseDir);
+
+        if (lazy) {
+            startBackgroundBootstrap();
+            return;
+        }
+
         try {
-            this.classLoader = classLoader;
-            Class<?> clazz = classLoader.loadClass("griffon.util.BuildSettings");
+            settings = createBuildSettings();
+            bootstrap();
+        } catch (Exception ex) {
+            // ex.printStackTrace();
+            throw new RuntimeException(ex);
+        }
+    }
 
-            // Use the BuildSettings(File griffonHome, File baseDir) constructor.
-            File griffonHomeFile = griffonHome == null ? null : new File(griffonHome);
-            File baseDirFile = baseDir == null ? null : new File(baseDir);
-            settings = clazz.getConstructor(File.class, File.class).newInstance(griffonHomeFile, baseDirFile);
+    /**
+     * Completes the bootstrap of the Griffon build system if it has been
+     * deferred, i.e. if this launcher was created in lazy mode. Does nothing
+     * if the launcher is already bootstrapped.
+     */
+    public void bootstrap() {
+        if (scriptRunner != null) return;
 
-            Class<?> settingsHolder = classLoader.loadClass("griffon.util.BuildSettingsHolder");
-            invokeMethod(settingsHolder, "setSettings",
-                new Class[]{clazz},
-                settings);
+        try {
+            Object theSettings = settings();
 
-            // Initialise the root loader for the BuildSettings.
-            invokeMethod(settings, "setRootLoader",
-                new Class[]{URLClassLoader.class},
-                classLoader);
+            Object runner = resolveClass(scriptRunnerClassFuture, SCRIPT_RUNNER).
+                getDeclaredConstructor(new Class[]{theSettings.getClass()}).
+                newInstance(theSettings);
+            invokeMethod(runner, "setup");
 
+            for (Object listener : pendingListeners) {
+                registerBuildEventListener(runner, listener);
+            }
+            pendingListeners.clear();
 
-            scriptRunner = createScriptRunner();
-            invokeMethod(scriptRunner, "setup");
+            Class<?> griffonSetupClass = resolveClass(griffonSetupClassFuture, GRIFFON_SETUP);
+            invokeMethod(griffonSetupClass, "run", new Class[0], new Object[0]);
 
-            callGriffonSetup();
+            scriptRunner = runner;
+        } catch (RuntimeException ex) {
+            throw ex;
         } catch (Exception ex) {
-            // ex.printStackTrace();
             throw new RuntimeException(ex);
+        } finally {
+            bootstrapExecutor = null;
         }
     }
 
+    /**
+     * Releases the resources held by this launcher, such as the threads of
+     * a background bootstrap still in progress, and closes the bridges of
+     * its launcher event listeners once their queued events are delivered,
+     * and the project loader created by
+     * {@link #updateDependencies(List, List, List)}. The launcher cannot be
+     * used afterwards. The class loader it was given is left to its owner.
+     */
+    public synchronized void close() {
+        if (bootstrapExecutor != null) {
+            bootstrapExecutor.shutdownNow();
+            bootstrapExecutor = null;
+        }
+        if (projectLoader != null) {
+            try {
+                projectLoader.close();
+            } catch (IOException e) {
+                debug("Unable to close the project loader: " + e);
+            }
+            projectLoader = null;
+            projectJars.clear();
+        }
+
+        List<BuildEventBridge> bridges;
+        synchronized (eventBridges) {
+            bridges = new ArrayList<BuildEventBridge>(eventBridges);
+            eventBridges.clear();
+        }
+        for (BuildEventBridge bridge : bridges) {
+            try {
+                bridge.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> once the Griffon build system has been fully
+     * bootstrapped and scripts can be launched without further setup.
+     */
+    public boolean isBootstrapped() {
+        return scriptRunner != null;
+    }
+
+    /**
+     * Returns the class loader Griffon is loaded by.
+     */
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
     public Object getBuildSettings() {
-        return settings;
+        return settings();
     }
 
     public void addBuildEventListener(Object listener) {
+        if (scriptRunner == null) {
+            pendingListeners.add(listener);
+            return;
+        }
+        registerBuildEventListener(scriptRunner, listener);
+    }
+
+    /**
+     * Adds a host-side listener for the build events, with a queue of 1024
+     * events that blocks the build when it is full.
+     *
+     * @see #addLauncherEventListener(LauncherEventListener, int, BuildEventBridge.OverflowPolicy)
+     */
+    public BuildEventBridge addLauncherEventListener(LauncherEventListener listener) {
+        return addLauncherEventListener(listener, 1024, BuildEventBridge.OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Adds a host-side listener for the build events. Events are queued as
+     * they are fired and delivered to the listener in batches, on a thread
+     * of its own.
+     *
+     * @param capacity       The maximum number of events queued.
+     * @param overflowPolicy What to do with new events when the queue is full.
+     * @return the bridge that delivers the events, which is closed along
+     *         with the launcher.
+     */
+    public BuildEventBridge addLauncherEventListener(LauncherEventListener listener, int capacity,
+                                                     BuildEventBridge.OverflowPolicy overflowPolicy) {
+        Class<?> buildListenerClass;
+        try {
+            buildListenerClass = classLoader.loadClass("griffon.build.GriffonBuildListener");
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        BuildEventBridge bridge = new BuildEventBridge(listener, capacity, overflowPolicy, 256, 10);
+        addBuildEventListener(Proxy.newProxyInstance(classLoader, new Class[]{buildListenerClass}, bridge));
+        synchronized (eventBridges) {
+            eventBridges.add(bridge);
+        }
+        return bridge;
+    }
+
+    private void registerBuildEventListener(Object runner, Object listener) {
         Class<?> buildListenerClass = null;
         try {
             buildListenerClass = classLoader.loadClass("griffon.build.GriffonBuildListener");
-            invokeMethod(scriptRunner, "addBuildEventListener", new Class[]{buildListenerClass}, listener);
+            invokeMethod(runner, "addBuildEventListener", new Class[]{buildListenerClass}, listener);
         } catch (ClassNotFoundException e) {
             throw new RuntimeException(e);
         }
@@ -136,16 +317,7 @@ public class GriffonLauncher {
      *         exit code).
      */
     public int launch(String script, String args) {
-        try {
-            debug("Launching " + script + " with args " + args);
-            Object retval = scriptRunner.getClass().
-                getMethod("executeCommand", new Class[]{String.class, String.class}).
-                invoke(scriptRunner, script, args);
-            return (Integer) retval;
-        } catch (Exception ex) {
-            // ex.printStackTrace();
-            throw new RuntimeException(ex);
-        }
+        return execute(script, args, null, false);
     }
 
     /**
@@ -162,17 +334,295 @@ public class GriffonLauncher {
      *         exit code).
      */
     public int launch(String script, String args, String env) {
+        return execute(script, args, env, true);
+    }
+
+    private int execute(String script, String args, String env, boolean withEnv) {
+        if (scriptCatalog != null) {
+            for (Map.Entry<String, String> jar : scriptCatalog.getUnreadableJars().entrySet()) {
+                debug("Skipped unreadable jar " + jar.getKey() + " when indexing scripts: " + jar.getValue());
+            }
+            script = scriptCatalog.resolve(script);
+        }
+
+        LauncherMetrics metrics = this.metrics;
+        long start = metrics == null ? 0L : metrics.launchStarted();
+        Integer exitCode = null;
+        ScopedSystemProperties.Scope scope = null;
         try {
-            debug("Launching " + script + " with env " + env + " and args " + args);
-            // script = getScriptName(script);
-            Object retval = scriptRunner.getClass().
-                getMethod("executeCommand", new Class[]{String.class, String.class, String.class}).
-                invoke(scriptRunner, script, args, env);
-            return (Integer) retval;
+            if (isScopedSystemProperties()) scope = ScopedSystemProperties.open(systemProperties);
+            bootstrap();
+            if (scriptClassCache != null && scriptCatalog != null) preloadScript(script);
+            Object retval;
+            if (withEnv) {
+                debug("Launching " + script + " with env " + env + " and args " + args);
+                // script = getScriptName(script);
+                retval = scriptRunner.getClass().
+                    getMethod("executeCommand", new Class[]{String.class, String.class, String.class}).
+                    invoke(scriptRunner, script, args, env);
+            } else {
+                debug("Launching " + script + " with args " + args);
+                retval = scriptRunner.getClass().
+                    getMethod("executeCommand", new Class[]{String.class, String.class}).
+                    invoke(scriptRunner, script, args);
+            }
+            exitCode = (Integer) retval;
+            return exitCode;
         } catch (Exception ex) {
             // ex.printStackTrace();
             throw new RuntimeException(ex);
+        } finally {
+            if (scope != null) scope.close();
+            if (metrics != null) metrics.launchFinished(script, start, exitCode);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if launches run with their own system
+     * properties, which is the case if it was asked for or if per-launch
+     * system properties are set.
+     */
+    public boolean isScopedSystemProperties() {
+        return scopedSystemProperties || !systemProperties.isEmpty();
+    }
+
+    /**
+     * Makes launches run with their own system properties: those Griffon
+     * sets during a launch, such as <code>griffon.env</code>, are only seen
+     * by the threads of that launch (see {@link ScopedSystemProperties}), so
+     * that several launchers can run at once in one JVM.
+     */
+    public void setScopedSystemProperties(boolean scopedSystemProperties) {
+        this.scopedSystemProperties = scopedSystemProperties;
+    }
+
+    /**
+     * Sets a system property for the launches of this launcher only, which
+     * makes them run with their own system properties.
+     */
+    public void setSystemProperty(String name, String value) {
+        systemProperties.put(name, value);
+    }
+
+    /**
+     * Returns the system properties set for the launches of this launcher.
+     */
+    public Map<String, String> getSystemProperties() {
+        return Collections.unmodifiableMap(systemProperties);
+    }
+
+    private void preloadScript(String script) {
+        try {
+            scriptClassCache.preload(script, scriptCatalog);
+        } catch (RuntimeException e) {
+            // Let Griffon compile the script itself, and report any error.
+            debug("Unable to preload the compiled script " + script + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts collecting metrics about the launches, and the classes and
+     * resources loaded if Griffon is loaded by a {@link RootLoader}. Metrics
+     * are off by default.
+     *
+     * @param mbeanName The name to register the metrics with the platform
+     *                  MBean server under, or <code>null</code> to not expose
+     *                  them through JMX.
+     * @return the metrics.
+     */
+    public synchronized LauncherMetrics enableMetrics(String mbeanName) {
+        if (metrics == null) {
+            LauncherMetrics newMetrics = new LauncherMetrics(classLoader);
+            if (mbeanName != null) newMetrics.register(mbeanName);
+            if (classLoader instanceof RootLoader) ((RootLoader) classLoader).setMetrics(newMetrics);
+            if (projectLoader != null) projectLoader.setMetrics(newMetrics);
+            metrics = newMetrics;
+        }
+        return metrics;
+    }
+
+    /**
+     * Stops collecting metrics and unregisters them from JMX.
+     */
+    public synchronized void disableMetrics() {
+        if (metrics == null) return;
+        if (classLoader instanceof RootLoader) ((RootLoader) classLoader).setMetrics(null);
+        if (projectLoader != null) projectLoader.setMetrics(null);
+        metrics.unregister();
+        metrics = null;
+    }
+
+    /**
+     * Returns the metrics of this launcher, or <code>null</code> if they are
+     * not enabled.
+     */
+    public LauncherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns <code>true</code> if this JVM supports Coordinated Restore at
+     * Checkpoint, i.e. if {@link #checkpoint()} can be used.
+     */
+    public static boolean isCheckpointSupported() {
+        return Crac.isAvailable();
+    }
+
+    /**
+     * Registers a resource to be closed before the JVM is checkpointed and
+     * reopened after it is restored, such as files or sockets the host or
+     * its build event listeners keep open.
+     *
+     * @throws UnsupportedOperationException if checkpoints are not supported.
+     */
+    public void addCheckpointResource(CheckpointResource resource) {
+        Crac.register(resource);
+    }
+
+    /**
+     * Bootstraps Griffon if needed, then checkpoints the JVM. The JVM exits
+     * once the checkpoint is taken, and this method returns when it is
+     * restored, with the launcher ready to launch scripts.
+     * <p>
+     * Jars opened by the class loader cannot be closed by the launcher: the
+     * JVM must be told to reopen them on restore (see {@link CheckpointMain}).
+     * Restoring fails if the jars have changed since the checkpoint.
+     *
+     * @throws UnsupportedOperationException if checkpoints are not supported.
+     */
+    public void checkpoint() throws Exception {
+        bootstrap();
+        if (classLoader instanceof URLClassLoader) {
+            final URL[] urls = ((URLClassLoader) classLoader).getURLs();
+            addCheckpointResource(new CheckpointResource() {
+                private String fingerprint;
+
+                public void beforeCheckpoint() {
+                    fingerprint = ClasspathFingerprint.of(urls);
+                }
+
+                public void afterRestore() {
+                    if (!ClasspathFingerprint.of(urls).equals(fingerprint)) {
+                        throw new IllegalStateException("The classpath of the launcher changed since the checkpoint was taken");
+                    }
+                }
+            });
+        }
+
+        debug("Checkpointing the JVM");
+        Crac.checkpointRestore();
+        debug("JVM restored");
+    }
+
+    /**
+     * Returns the policy deciding which classes Griffon shares with the
+     * host rather than loading its own copy. Changes to it only affect
+     * classes that have not been loaded yet.
+     *
+     * @throws IllegalStateException if this launcher does not use a
+     *                               {@link RootLoader}.
+     */
+    public DelegationPolicy getDelegationPolicy() {
+        return rootLoader().getDelegationPolicy();
+    }
+
+    public void setDelegationPolicy(DelegationPolicy delegationPolicy) {
+        rootLoader().setDelegationPolicy(delegationPolicy);
+    }
+
+    private RootLoader rootLoader() {
+        if (!(classLoader instanceof RootLoader)) {
+            throw new IllegalStateException("Griffon is not loaded by a RootLoader but by " + classLoader);
+        }
+        return (RootLoader) classLoader;
+    }
+
+    /**
+     * Returns the catalog used to resolve scripts, if any.
+     */
+    public ScriptCatalog getScriptCatalog() {
+        return scriptCatalog;
+    }
+
+    /**
+     * Sets a catalog used to resolve script and command names before they
+     * are launched. Names the catalog does not know fail the launch with an
+     * {@link IllegalArgumentException} suggesting similar commands, before
+     * Griffon is bootstrapped.
+     * <p>
+     * Griffon still looks the script up itself when it is launched: its
+     * script runner only takes a name, so the catalog cannot hand it the
+     * location it found. See {@link #createScriptCatalog(File)}.
+     */
+    public void setScriptCatalog(ScriptCatalog scriptCatalog) {
+        this.scriptCatalog = scriptCatalog;
+    }
+
+    /**
+     * Creates a catalog of the scripts available to the project of this
+     * launcher: those of the Griffon installation, of the user, of the
+     * project and of its plugins, plus the packaged scripts found in the
+     * jars of the root loader, whatever their names.
+     *
+     * @param indexFile The file the catalog is persisted in.
+     */
+    public ScriptCatalog createScriptCatalog(File indexFile) {
+        ScriptCatalog catalog = new ScriptCatalog(indexFile);
+        if (baseDirFile != null) catalog.addScriptsDir(new File(baseDirFile, "scripts"));
+        catalog.addScriptsDir(new File(System.getProperty("user.home"), ".griffon/scripts"));
+        if (griffonHomeFile != null) catalog.addScriptsDir(new File(griffonHomeFile, "scripts"));
+
+        File pluginsDir = getProjectPluginsDir();
+        if (pluginsDir != null) catalog.addPluginsDir(pluginsDir);
+        try {
+            File globalPluginsDir = (File) invokeMethod(settings(), "getGlobalPluginsDir", new Class[0], new Object[0]);
+            if (globalPluginsDir != null) catalog.addPluginsDir(globalPluginsDir);
+        } catch (RuntimeException e) {
+            // Not available in all versions of Griffon.
+        }
+
+        if (classLoader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) classLoader).getURLs()) {
+                File file = ClasspathFingerprint.toFile(url);
+                if (file != null && file.isFile()) catalog.addScriptsJar(file);
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Returns the cache of compiled scripts used by this launcher, if any.
+     */
+    public ScriptClassCache getScriptClassCache() {
+        return scriptClassCache;
+    }
+
+    /**
+     * Sets the cache the scripts launched, and those they include, are
+     * loaded from or compiled into before each launch. It is only used
+     * along with a {@link ScriptCatalog}, which finds the script sources.
+     */
+    public void setScriptClassCache(ScriptClassCache scriptClassCache) {
+        this.scriptClassCache = scriptClassCache;
+    }
+
+    /**
+     * Creates a cache of compiled scripts for the Griffon version and the
+     * root loader of this launcher.
+     *
+     * @param cacheDir The directory the compiled scripts are kept in.
+     * @throws IllegalStateException if this launcher does not use a
+     *                               {@link RootLoader}.
+     */
+    public ScriptClassCache createScriptClassCache(File cacheDir) {
+        String griffonVersion;
+        try {
+            griffonVersion = String.valueOf(invokeMethod(settings(), "getGriffonVersion"));
+        } catch (RuntimeException e) {
+            // The classpath fingerprint identifies the version anyway.
+            griffonVersion = "unknown";
         }
+        return new ScriptClassCache(cacheDir, rootLoader(), griffonVersion);
     }
 
     private String getScriptName(String name) {
@@ -203,114 +653,425 @@ public class GriffonLauncher {
     }
 
     public File getGriffonWorkDir() {
-        return (File) invokeMethod(settings, "getGriffonWorkDir");
+        return (File) invokeMethod(settings(), "getGriffonWorkDir");
     }
 
     public void setGriffonWorkDir(File dir) {
-        invokeMethod(settings, "setGriffonWorkDir", dir);
+        applySetting("setGriffonWorkDir", File.class, dir);
     }
 
     public File getProjectWorkDir() {
-        return (File) invokeMethod(settings, "getProjectWorkDir");
+        return (File) invokeMethod(settings(), "getProjectWorkDir");
     }
 
     public void setProjectWorkDir(File dir) {
-        invokeMethod(settings, "setProjectWorkDir", dir);
+        applySetting("setProjectWorkDir", File.class, dir);
     }
 
     public File getClassesDir() {
-        return (File) invokeMethod(settings, "getClassesDir");
+        return (File) invokeMethod(settings(), "getClassesDir");
     }
 
     public void setClassesDir(File dir) {
-        invokeMethod(settings, "setClassesDir", dir);
+        applySetting("setClassesDir", File.class, dir);
     }
 
     public File getTestClassesDir() {
-        return (File) invokeMethod(settings, "getTestClassesDir");
+        return (File) invokeMethod(settings(), "getTestClassesDir");
     }
 
     public void setTestClassesDir(File dir) {
-        invokeMethod(settings, "setTestClassesDir", dir);
+        applySetting("setTestClassesDir", File.class, dir);
     }
 
     public File getResourcesDir() {
-        return (File) invokeMethod(settings, "getResourcesDir");
+        return (File) invokeMethod(settings(), "getResourcesDir");
     }
 
     public void setResourcesDir(File dir) {
-        invokeMethod(settings, "setResourcesDir", dir);
+        applySetting("setResourcesDir", File.class, dir);
     }
 
     public File getProjectPluginsDir() {
-        return (File) invokeMethod(settings, "getProjectPluginsDir");
+        return (File) invokeMethod(settings(), "getProjectPluginsDir");
     }
 
     public void setProjectPluginsDir(File dir) {
-        invokeMethod(settings, "setProjectPluginsDir", dir);
+        applySetting("setProjectPluginsDir", File.class, dir);
     }
 
     public File getTestReportsDir() {
-        return (File) invokeMethod(settings, "getTestReportsDir");
+        return (File) invokeMethod(settings(), "getTestReportsDir");
     }
 
     public void setTestReportsDir(File dir) {
-        invokeMethod(settings, "setTestReportsDir", dir);
+        applySetting("setTestReportsDir", File.class, dir);
     }
 
     @SuppressWarnings("rawtypes")
     public List getCompileDependencies() {
-        return (List) invokeMethod(settings, "getCompileDependencies");
+        return (List) invokeMethod(settings(), "getCompileDependencies");
     }
 
     @SuppressWarnings("rawtypes")
     public void setCompileDependencies(List dependencies) {
-        invokeMethod(settings, "setCompileDependencies", new Class[]{List.class}, dependencies);
+        applySetting("setCompileDependencies", List.class, normalize(dependencies));
     }
 
     public void setDependenciesExternallyConfigured(boolean b) {
-        invokeMethod(settings, "setDependenciesExternallyConfigured", new Class[]{boolean.class}, b);
+        applySetting("setDependenciesExternallyConfigured", boolean.class, b);
     }
 
     @SuppressWarnings("rawtypes")
     public List getTestDependencies() {
-        return (List) invokeMethod(settings, "getTestDependencies");
+        return (List) invokeMethod(settings(), "getTestDependencies");
     }
 
     @SuppressWarnings("rawtypes")
     public void setTestDependencies(List dependencies) {
-        invokeMethod(settings, "setTestDependencies", new Class[]{List.class}, dependencies);
+        applySetting("setTestDependencies", List.class, normalize(dependencies));
     }
 
     @SuppressWarnings("rawtypes")
     public List getRuntimeDependencies() {
-        return (List) invokeMethod(settings, "getRuntimeDependencies");
+        return (List) invokeMethod(settings(), "getRuntimeDependencies");
     }
 
     @SuppressWarnings("rawtypes")
     public void setRuntimeDependencies(List dependencies) {
-        invokeMethod(settings, "setRuntimeDependencies", new Class[]{List.class}, dependencies);
+        applySetting("setRuntimeDependencies", List.class, normalize(dependencies));
     }
 
     @SuppressWarnings("rawtypes")
     public List getBuildDependencies() {
-        return (List) invokeMethod(settings, "getBuildDependencies");
+        return (List) invokeMethod(settings(), "getBuildDependencies");
     }
 
     @SuppressWarnings("rawtypes")
     public void setBuildDependencies(List dependencies) {
-        invokeMethod(settings, "setBuildDependencies", new Class[]{List.class}, dependencies);
+        applySetting("setBuildDependencies", List.class, dependencies);
+    }
+
+    /**
+     * Replaces the dependencies of the project, e.g. after one of them was
+     * upgraded, without throwing the warm launcher away. The jars Griffon is
+     * loaded from are kept, and the project's jars are loaded by a layer on
+     * top of them. Jars the Griffon loader or its parents already load, such
+     * as <code>groovy-all</code> or <code>griffon-rt</code>, are left out
+     * of the layer, so that their classes are not defined twice. The layer
+     * is extended in place when jars were only added,
+     * and replaced by a new one when a jar was removed or rebuilt. The
+     * compile, runtime and test dependencies are then applied again.
+     * <p>
+     * Classes loaded from a replaced layer are not unloaded, so objects
+     * created by earlier launches should not be kept across the update. It
+     * must not be called while a script runs.
+     *
+     * @return <code>true</code> if a new layer was created.
+     */
+    @SuppressWarnings("rawtypes")
+    public synchronized boolean updateDependencies(List compileDependencies, List runtimeDependencies,
+                                                   List testDependencies) {
+        List compile = normalize(compileDependencies);
+        List runtime = normalize(runtimeDependencies);
+        List test = normalize(testDependencies);
+
+        Map<URL, String> jars = new LinkedHashMap<URL, String>();
+        addJars(jars, compile);
+        addJars(jars, runtime);
+        addJars(jars, test);
+
+        // A jar that is gone, or whose stamp changed, may still have classes
+        // in the current layer, so only additions can be made in place.
+        boolean replace = projectLoader == null;
+        for (Map.Entry<URL, String> jar : projectJars.entrySet()) {
+            if (replace) break;
+            replace = !jar.getValue().equals(jars.get(jar.getKey()));
+        }
+
+        long start = System.nanoTime();
+        Map<Long, List<File>> parentJars = parentJars();
+        if (replace) {
+            RootLoader previous = projectLoader;
+            List<URL> urls = new ArrayList<URL>();
+            for (URL url : jars.keySet()) {
+                if (!isInParent(url, parentJars)) urls.add(url);
+            }
+            projectLoader = createProjectLoader(urls);
+            applySetting("setRootLoader", URLClassLoader.class, projectLoader);
+            if (previous != null) {
+                try {
+                    previous.close();
+                } catch (IOException e) {
+                    debug("Unable to close the previous project loader: " + e);
+                }
+            }
+        } else {
+            for (URL url : jars.keySet()) {
+                if (!projectJars.containsKey(url) && !isInParent(url, parentJars)) projectLoader.addURL(url);
+            }
+        }
+        projectJars.clear();
+        projectJars.putAll(jars);
+
+        if (compile != null) applySetting("setCompileDependencies", List.class, compile);
+        if (runtime != null) applySetting("setRuntimeDependencies", List.class, runtime);
+        if (test != null) applySetting("setTestDependencies", List.class, test);
+        setDependenciesExternallyConfigured(true);
+
+        debug((replace ? "Created a new" : "Extended the") + " project loader with " + jars.size() + " jars in " +
+            (System.nanoTime() - start) / 1000000L + " ms");
+        return replace;
+    }
+
+    /**
+     * Returns the class loader the project's dependencies are loaded by: the
+     * layer maintained by {@link #updateDependencies(List, List, List)}, or
+     * the class loader Griffon is loaded by if there is none yet.
+     */
+    public ClassLoader getProjectClassLoader() {
+        synchronized (this) {
+            return projectLoader == null ? classLoader : projectLoader;
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static void addJars(Map<URL, String> jars, List dependencies) {
+        if (dependencies == null) return;
+        for (Object dependency : dependencies) {
+            File file = dependency instanceof File ? (File) dependency : new File(String.valueOf(dependency));
+            URL url;
+            try {
+                url = file.getAbsoluteFile().toURI().toURL();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid dependency " + dependency, e);
+            }
+            if (!jars.containsKey(url)) {
+                // Directories are read as they are, so changes to their contents need no new layer.
+                jars.put(url, file.isDirectory() ? "directory" : ClasspathFingerprint.of(new URL[]{url}));
+            }
+        }
+    }
+
+    /**
+     * Returns the jars loaded by the class loader Griffon is loaded by and
+     * by its parents, by size.
+     */
+    private Map<Long, List<File>> parentJars() {
+        Map<Long, List<File>> jars = new HashMap<Long, List<File>>();
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            if (!(loader instanceof URLClassLoader)) continue;
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                File file = ClasspathFingerprint.toFile(url);
+                if (file == null || !file.isFile()) continue;
+                List<File> sameSize = jars.get(file.length());
+                if (sameSize == null) {
+                    sameSize = new ArrayList<File>();
+                    jars.put(file.length(), sameSize);
+                }
+                sameSize.add(file);
+            }
+        }
+        return jars;
+    }
+
+    /**
+     * Tells whether a jar is one of the given parent jars, by its path or,
+     * since the same artifact is often found in several places, e.g. in
+     * the Maven repository and in the Griffon installation, by its content.
+     * Only jars of the same size are compared, so few are ever read.
+     */
+    private boolean isInParent(URL url, Map<Long, List<File>> parentJars) {
+        File file = ClasspathFingerprint.toFile(url);
+        if (file == null || !file.isFile()) return false;
+        List<File> sameSize = parentJars.get(file.length());
+        if (sameSize == null) return false;
+
+        String path = canonicalPath(file);
+        for (File parentJar : sameSize) {
+            if (path.equals(canonicalPath(parentJar))) return true;
+        }
+        String hash = contentHash(file);
+        if (hash == null) return false;
+        for (File parentJar : sameSize) {
+            if (hash.equals(contentHash(parentJar))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the content hash of a jar, remembered as long as the jar is
+     * not modified, or <code>null</code> if it cannot be read.
+     */
+    private String contentHash(File jar) {
+        String key = canonicalPath(jar) + ":" + jar.length() + ":" + jar.lastModified();
+        String hash = contentHashes.get(key);
+        if (hash == null) {
+            try {
+                hash = ClasspathFingerprint.contentHash(jar);
+            } catch (IOException e) {
+                debug("Unable to read " + jar + ": " + e);
+                return null;
+            }
+            contentHashes.put(key, hash);
+        }
+        return hash;
     }
 
-    private Object createScriptRunner() throws Exception {
-        return classLoader.loadClass("org.codehaus.griffon.cli.GriffonScriptRunner").
-            getDeclaredConstructor(new Class[]{settings.getClass()}).
-            newInstance(settings);
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private RootLoader createProjectLoader(Collection<URL> jars) {
+        boolean warmUp = classLoader instanceof RootLoader && ((RootLoader) classLoader).isWarmUp();
+        RootLoader loader = new RootLoader(jars.toArray(new URL[jars.size()]), classLoader, warmUp);
+        if (classLoader instanceof RootLoader) {
+            loader.setDelegationPolicy(((RootLoader) classLoader).getDelegationPolicy());
+        }
+        loader.setMetrics(metrics);
+        return loader;
+    }
+
+    /**
+     * Whether dependency lists given to this launcher should be cleaned up
+     * with a {@link ClasspathNormalizer} before they are passed to Griffon.
+     */
+    public boolean isNormalizeDependencies() {
+        return normalizeDependencies;
+    }
+
+    public void setNormalizeDependencies(boolean normalizeDependencies) {
+        this.normalizeDependencies = normalizeDependencies;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private List normalize(List dependencies) {
+        if (!normalizeDependencies || dependencies == null) return dependencies;
+        for (Object dependency : dependencies) {
+            if (!(dependency instanceof File)) return dependencies;
+        }
+
+        ClasspathNormalizer normalizer = new ClasspathNormalizer(dependencies);
+        for (String duplicate : normalizer.getDuplicates()) {
+            debug("Removed duplicate dependency " + duplicate);
+        }
+        for (Map.Entry<String, List<File>> conflict : normalizer.getConflicts().entrySet()) {
+            debug("Multiple versions of " + conflict.getKey() + " on the classpath: " + conflict.getValue());
+        }
+        return new ArrayList(normalizer.getFiles());
+    }
+
+    /**
+     * Applies a setting to the build settings or, if they are not available
+     * yet, buffers it until they are.
+     */
+    private void applySetting(String setter, Class<?> type, Object value) {
+        if (settings == null) {
+            pendingSettings.put(setter, new Object[]{type, value});
+            return;
+        }
+        invokeMethod(settings, setter, new Class[]{type}, value);
     }
 
-    private void callGriffonSetup() throws Exception {
-        Class<?> griffonSetupClass = classLoader.loadClass("org.codehaus.griffon.cli.GriffonSetup");
-        invokeMethod(griffonSetupClass, "run", new Class[0], new Object[0]);
+    /**
+     * Returns the build settings, waiting for the background bootstrap to
+     * create them if necessary, after applying any buffered settings.
+     */
+    private Object settings() {
+        if (settings == null) {
+            settings = await(settingsFuture);
+        }
+
+        for (Map.Entry<String, Object[]> setting : pendingSettings.entrySet()) {
+            Object[] typeAndValue = setting.getValue();
+            invokeMethod(settings, setting.getKey(), new Class[]{(Class<?>) typeAndValue[0]}, typeAndValue[1]);
+        }
+        pendingSettings.clear();
+
+        return settings;
+    }
+
+    private Object createBuildSettings() throws Exception {
+        Class<?> clazz = classLoader.loadClass(BUILD_SETTINGS);
+        if (classLoader instanceof RootLoader) {
+            RootLoader rootLoader = (RootLoader) classLoader;
+            debug("Loaded BuildSettings " + rootLoader.getAgeMillis() + " ms after the root loader was created " +
+                "(" + rootLoader.getWarmUpMillis() + " ms spent validating its classpath)");
+        }
+
+        // Use the BuildSettings(File griffonHome, File baseDir) constructor.
+        Object buildSettings = clazz.getConstructor(File.class, File.class).newInstance(griffonHomeFile, baseDirFile);
+
+        Class<?> settingsHolder = classLoader.loadClass(BUILD_SETTINGS_HOLDER);
+        invokeMethod(settingsHolder, "setSettings",
+            new Class[]{clazz},
+            buildSettings);
+
+        // Initialise the root loader for the BuildSettings.
+        invokeMethod(buildSettings, "setRootLoader",
+            new Class[]{URLClassLoader.class},
+            classLoader);
+
+        return buildSettings;
+    }
+
+    /**
+     * Starts resolving the Griffon entry point classes and creating the build
+     * settings in parallel, on background threads.
+     */
+    private void startBackgroundBootstrap() {
+        bootstrapExecutor = Executors.newFixedThreadPool(3, new LauncherThreadFactory("bootstrap", classLoader));
+        settingsFuture = bootstrapExecutor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                return createBuildSettings();
+            }
+        });
+        scriptRunnerClassFuture = bootstrapExecutor.submit(new ClassResolver(SCRIPT_RUNNER));
+        griffonSetupClassFuture = bootstrapExecutor.submit(new ClassResolver(GRIFFON_SETUP));
+        // The submitted tasks still run, but the threads end with them, even
+        // if the launcher is never launched.
+        bootstrapExecutor.shutdown();
+    }
+
+    private Class<?> resolveClass(Future<Class<?>> future, String name) throws ClassNotFoundException {
+        if (future == null) return classLoader.loadClass(name);
+        return await(future);
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Loads and initialises a class, so that its static initialisers run on
+     * the background thread rather than the launching one.
+     */
+    private class ClassResolver implements Callable<Class<?>> {
+        private final String name;
+
+        ClassResolver(String name) {
+            this.name = name;
+        }
+
+        public Class<?> call() throws Exception {
+            // Initialize the class the loader returns, which need not have
+            // the requested name, e.g. when a loader maps it to a stand-in.
+            Class<?> c = classLoader.loadClass(name);
+            return Class.forName(c.getName(), true, c.getClassLoader());
+        }
     }
 
     /**
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, in microseconds, with log-linear buckets in the
+ * manner of HdrHistogram: values below 32 get a bucket each, and every
+ * power of two above that is split into 16 buckets, so that any recorded
+ * value is known within about 6% while the whole range, up to several days,
+ * fits in a few hundred counters. Recording is a single atomic increment.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 16;
+    private static final int EXACT = 2 * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long micros) {
+        long value = Math.min(MAX_VALUE, Math.max(0L, micros));
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    long getCount() {
+        return count.get();
+    }
+
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded
+     * values fall, as the upper bound of the bucket it lies in, or 0 if
+     * nothing was recorded.
+     */
+    long getPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("'percentile' must be between 0 and 100: " + percentile);
+        }
+        long total = 0L;
+        for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+        if (total == 0L) return 0L;
+
+        long target = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0L;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    static int index(long value) {
+        if (value < EXACT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+        int top = (int) (value >>> shift);
+        return EXACT + (shift - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+    }
+
+    static long upperBound(int index) {
+        if (index < EXACT) return index;
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long top = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.util.Arrays;
+
+/**
+ * A build event fired by Griffon. The arguments are the objects Griffon
+ * fired the event with, whose classes usually come from Griffon's class
+ * loader.
+ */
+public class LauncherEvent {
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final String name;
+    private final Object[] args;
+    private final long timestamp;
+
+    public LauncherEvent(String name, Object[] args, long timestamp) {
+        this.name = name;
+        this.args = args == null ? NO_ARGS : args;
+        this.timestamp = timestamp;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Object[] getArgs() {
+        return args.clone();
+    }
+
+    /**
+     * Returns when the event was fired, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return name + Arrays.toString(args);
+    }
+}
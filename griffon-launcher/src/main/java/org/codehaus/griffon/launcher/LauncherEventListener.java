@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.util.List;
+
+/**
+ * Receives the build events of a Griffon launcher, such as
+ * "StatusUpdate" or "TestSuiteEnd", on the host side: unlike Griffon's own
+ * <code>GriffonBuildListener</code>, it does not have to be loaded by
+ * Griffon's class loader.
+ * <p>
+ * Events are delivered in batches, in the order they were fired, on a
+ * thread of the launcher rather than the build thread, so that a slow
+ * listener does not slow down the build.
+ *
+ * @see GriffonLauncher#addLauncherEventListener(LauncherEventListener, int, BuildEventBridge.OverflowPolicy)
+ */
+public interface LauncherEventListener {
+    void onEvents(List<LauncherEvent> events);
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects live metrics of a {@link GriffonLauncher} and its
+ * {@link RootLoader}, and optionally exposes them through JMX (see
+ * {@link LauncherMetricsMXBean}).
+ * <p>
+ * Counters updated while loading classes and resources are striped, so
+ * that threads loading classes concurrently do not contend on them.
+ *
+ * @see GriffonLauncher#enableMetrics(String)
+ */
+public class LauncherMetrics implements LauncherMetricsMXBean {
+    public static final String DOMAIN = "org.codehaus.griffon.launcher";
+
+    private final ClassLoader classLoader;
+    private final long creationTime = System.nanoTime();
+
+    private final AtomicLong launches = new AtomicLong();
+    private final AtomicLong activeLaunches = new AtomicLong();
+    private final AtomicLong failedLaunches = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> launchesByScript = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<Integer, AtomicLong> exitCodes = new ConcurrentHashMap<Integer, AtomicLong>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final StripedCounter classesLoaded = new StripedCounter();
+    private final StripedCounter classLoadNanos = new StripedCounter();
+    private final StripedCounter resourceLookups = new StripedCounter();
+
+    private ObjectName objectName;
+
+    /**
+     * @param classLoader The class loader of the launcher.
+     */
+    public LauncherMetrics(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, as
+     * <code>org.codehaus.griffon.launcher:type=GriffonLauncher,name=&lt;name&gt;</code>.
+     */
+    public synchronized void register(String name) {
+        if (objectName != null) {
+            throw new IllegalStateException("Already registered as " + objectName);
+        }
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=GriffonLauncher,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new RuntimeException("Unable to register launcher metrics '" + name + "'", e);
+        }
+    }
+
+    /**
+     * Unregisters these metrics from the platform MBean server, if they were
+     * registered.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new RuntimeException("Unable to unregister " + objectName, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    /**
+     * Returns the name these metrics are registered under, or
+     * <code>null</code> if they are not registered.
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    long launchStarted() {
+        launches.incrementAndGet();
+        activeLaunches.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * @param exitCode The exit code of the script, or <code>null</code> if
+     *                 the launch failed with an exception.
+     */
+    void launchFinished(String script, long startNanos, Integer exitCode) {
+        latency.record((System.nanoTime() - startNanos) / 1000L);
+        activeLaunches.decrementAndGet();
+        increment(launchesByScript, script);
+        if (exitCode == null) {
+            failedLaunches.incrementAndGet();
+        } else {
+            increment(exitCodes, exitCode);
+        }
+    }
+
+    void classLoaded(long nanos) {
+        classesLoaded.increment();
+        classLoadNanos.add(nanos);
+    }
+
+    void resourceLookup() {
+        resourceLookups.increment();
+    }
+
+    private static <K> void increment(ConcurrentMap<K, AtomicLong> counters, K key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            AtomicLong existing = counters.putIfAbsent(key, counter = new AtomicLong());
+            if (existing != null) counter = existing;
+        }
+        counter.incrementAndGet();
+    }
+
+    private static <K> Map<K, Long> snapshot(Map<K, AtomicLong> counters) {
+        Map<K, Long> snapshot = new TreeMap<K, Long>();
+        for (Map.Entry<K, AtomicLong> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+
+    public long getLaunchCount() {
+        return launches.get();
+    }
+
+    public long getActiveLaunchCount() {
+        return activeLaunches.get();
+    }
+
+    public Map<String, Long> getLaunchesByScript() {
+        return snapshot(launchesByScript);
+    }
+
+    public Map<Integer, Long> getExitCodes() {
+        return snapshot(exitCodes);
+    }
+
+    public long getFailedLaunchCount() {
+        return failedLaunches.get();
+    }
+
+    public double getLatency50thPercentileMillis() {
+        return latencyPercentileMillis(50.0);
+    }
+
+    public double getLatency90thPercentileMillis() {
+        return latencyPercentileMillis(90.0);
+    }
+
+    public double getLatency99thPercentileMillis() {
+        return latencyPercentileMillis(99.0);
+    }
+
+    public double getLatencyMaxMillis() {
+        return latency.getMax() / 1000.0;
+    }
+
+    public double latencyPercentileMillis(double percentile) {
+        return latency.getPercentile(percentile) / 1000.0;
+    }
+
+    public long getClassesLoaded() {
+        return classesLoaded.sum();
+    }
+
+    public double getClassLoadTimeMillis() {
+        return classLoadNanos.sum() / 1000000.0;
+    }
+
+    public long getResourceLookups() {
+        return resourceLookups.sum();
+    }
+
+    public int getJarCount() {
+        if (!(classLoader instanceof URLClassLoader)) return 0;
+        int count = 0;
+        for (URL url : ((URLClassLoader) classLoader).getURLs()) {
+            if (url.getPath().endsWith(".jar")) count++;
+        }
+        return count;
+    }
+
+    public int getThreadCount() {
+        return ownedThreads().size();
+    }
+
+    public List<String> getThreadNames() {
+        List<String> names = new ArrayList<String>();
+        for (Thread thread : ownedThreads()) names.add(thread.getName());
+        return names;
+    }
+
+    public long getUptimeMillis() {
+        return (System.nanoTime() - creationTime) / 1000000L;
+    }
+
+    private List<Thread> ownedThreads() {
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group.getParent() != null) group = group.getParent();
+
+        Thread[] threads = new Thread[group.activeCount() + 16];
+        int count;
+        while ((count = group.enumerate(threads, true)) == threads.length) {
+            threads = new Thread[threads.length * 2];
+        }
+
+        List<Thread> owned = new ArrayList<Thread>();
+        for (int i = 0; i < count; i++) {
+            if (isOwned(threads[i])) owned.add(threads[i]);
+        }
+        return owned;
+    }
+
+    private boolean isOwned(Thread thread) {
+        for (ClassLoader loader = thread.getContextClassLoader(); loader != null; loader = loader.getParent()) {
+            if (loader == classLoader) return true;
+        }
+        return false;
+    }
+}
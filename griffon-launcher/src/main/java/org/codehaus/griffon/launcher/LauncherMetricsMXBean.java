@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The management interface of {@link LauncherMetrics}, as seen through JMX.
+ */
+public interface LauncherMetricsMXBean {
+    /**
+     * Returns the number of launches, finished or not.
+     */
+    long getLaunchCount();
+
+    /**
+     * Returns the number of launches currently running.
+     */
+    long getActiveLaunchCount();
+
+    /**
+     * Returns the number of finished launches, by script.
+     */
+    Map<String, Long> getLaunchesByScript();
+
+    /**
+     * Returns the number of finished launches, by exit code.
+     */
+    Map<Integer, Long> getExitCodes();
+
+    /**
+     * Returns the number of launches that failed with an exception instead
+     * of returning an exit code.
+     */
+    long getFailedLaunchCount();
+
+    double getLatency50thPercentileMillis();
+
+    double getLatency90thPercentileMillis();
+
+    double getLatency99thPercentileMillis();
+
+    double getLatencyMaxMillis();
+
+    /**
+     * Returns the launch latency below which the given percentage of the
+     * launches fall.
+     */
+    double latencyPercentileMillis(double percentile);
+
+    /**
+     * Returns the number of classes the launcher's RootLoader defined.
+     */
+    long getClassesLoaded();
+
+    /**
+     * Returns the time the launcher's RootLoader spent finding and defining
+     * classes.
+     */
+    double getClassLoadTimeMillis();
+
+    /**
+     * Returns the number of resource lookups made through the launcher's
+     * RootLoader.
+     */
+    long getResourceLookups();
+
+    /**
+     * Returns the number of jars in the launcher's classpath.
+     */
+    int getJarCount();
+
+    /**
+     * Returns the number of live threads owned by the launcher, i.e. whose
+     * context class loader is the launcher's class loader or one of its
+     * children.
+     */
+    int getThreadCount();
+
+    List<String> getThreadNames();
+
+    long getUptimeMillis();
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps warm launchers for build tools that run several Griffon scripts per
+ * build, so that they share one {@link RootLoader} and
+ * {@link GriffonLauncher} per Griffon project. Launchers are keyed by their
+ * classpath, Griffon home and project directory. How long a pool lives is
+ * up to the build tool integration, which should {@link #close()} it when
+ * the build is over.
+ * <p>
+ * Each launcher has a lock, so that launches on the same launcher run one at
+ * a time while launches on different launchers run concurrently. Since the
+ * launchers of a pool may thus run at once, their launches run with their
+ * own system properties (see
+ * {@link GriffonLauncher#setScopedSystemProperties(boolean)}).
+ */
+public class LauncherPool {
+    private final ClassLoader parent;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * @param parent The parent of the root loaders of the launchers.
+     */
+    public LauncherPool(ClassLoader parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Returns the launcher for the given classpath, Griffon home and
+     * project directory, creating it if needed. New launchers bootstrap
+     * Griffon in the background, and complete it on their first launch.
+     */
+    public synchronized Entry get(Collection<File> classpath, String griffonHome, File baseDir) {
+        String key = ClasspathFingerprint.of(classpath) + ":" + griffonHome + ":" + baseDir.getAbsolutePath();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            List<URL> urls = new ArrayList<URL>(classpath.size());
+            for (File file : classpath) {
+                urls.add(ClasspathFingerprint.toURL(file));
+            }
+            RootLoader rootLoader = new RootLoader(urls.toArray(new URL[urls.size()]), parent);
+            GriffonLauncher launcher = new GriffonLauncher(rootLoader, griffonHome, baseDir.getAbsolutePath(), true);
+            launcher.setScopedSystemProperties(true);
+            entry = new Entry(rootLoader, launcher);
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the number of launchers in the pool.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Releases the launchers of the pool, waiting for the launches in
+     * progress to finish.
+     */
+    public synchronized void close() {
+        for (Entry entry : entries.values()) {
+            entry.lock.lock();
+            try {
+                entry.launcher.close();
+                entry.rootLoader.close();
+            } catch (IOException e) {
+                // Only jar handles are released here, so there is nothing to recover.
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+        entries.clear();
+    }
+
+    public static class Entry {
+        private final RootLoader rootLoader;
+        private final GriffonLauncher launcher;
+        private final Lock lock = new ReentrantLock();
+
+        Entry(RootLoader rootLoader, GriffonLauncher launcher) {
+            this.rootLoader = rootLoader;
+            this.launcher = launcher;
+        }
+
+        public GriffonLauncher getLauncher() {
+            return launcher;
+        }
+
+        /**
+         * Returns the lock to hold while launching on this launcher.
+         */
+        public Lock getLock() {
+            return lock;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the daemon threads the launcher uses for background work, named
+ * after the job they do so they are easy to spot in a thread dump. Daemon
+ * threads ensure a launcher never keeps the host JVM alive.
+ */
+public class LauncherThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final ClassLoader contextClassLoader;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param name A short name for the job the threads do, e.g. "bootstrap".
+     */
+    public LauncherThreadFactory(String name) {
+        this(name, null);
+    }
+
+    /**
+     * @param name A short name for the job the threads do, e.g. "bootstrap".
+     * @param contextClassLoader The context class loader of the threads, which
+     *                           also marks them as owned by the launcher of that
+     *                           loader (see {@link LauncherMetrics}). If
+     *                           <code>null</code>, threads inherit it.
+     */
+    public LauncherThreadFactory(String name, ClassLoader contextClassLoader) {
+        this.prefix = "griffon-launcher-" + name + "-";
+        this.contextClassLoader = contextClassLoader;
+    }
+
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+        thread.setDaemon(true);
+        if (contextClassLoader != null) thread.setContextClassLoader(contextClassLoader);
+        return thread;
+    }
+}
@@ -15,10 +15,20 @@
  */
 package org.codehaus.griffon.launcher;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
 
 /**
  * This ClassLoader should be used as root of class loaders. Any
@@ -71,7 +81,24 @@ import java.util.HashMap;
  */
 public class RootLoader extends URLClassLoader {
 
-    private Map<String, Class> customClasses = new HashMap<String, Class>();
+    static {
+        // Classes may be preloaded from several threads at once
+        // (see ClassListPreloader), so lock per class name rather than
+        // on the whole loader.
+        registerAsParallelCapable();
+    }
+
+    private volatile DelegationPolicy delegationPolicy = new DelegationPolicy();
+
+    private volatile Queue<String> recordedClasses;
+    private volatile LauncherMetrics metrics;
+    private final Map<String, CompiledClassLoader> compiledClasses = new ConcurrentHashMap<String, CompiledClassLoader>();
+    private final AtomicInteger compiledClassCount = new AtomicInteger();
+
+    private final long creationTime = System.nanoTime();
+    private final boolean warmUp;
+    private final Map<URL, String> invalidJars = new ConcurrentHashMap<URL, String>();
+    private long warmUpMillis;
 
     /**
      * constructs a new RootLoader without classpath
@@ -95,48 +122,261 @@ public class RootLoader extends URLClassLoader {
      * array of URLs as classpath
      */
     public RootLoader(URL[] urls, ClassLoader parent) {
+        this(urls, parent, false);
+    }
+
+    /**
+     * constructs a new RootLoader with a parent loader and an
+     * array of URLs as classpath. If warmUp is true, all the jars of
+     * the classpath are validated before the constructor returns, and
+     * those that are missing or cannot be read as jars are reported by
+     * {@link #getInvalidJars()}, where the URL class path would skip them
+     * without a word. This is a check, not a speed-up: each jar is opened
+     * once more for it.
+     */
+    public RootLoader(URL[] urls, ClassLoader parent, boolean warmUp) {
         super(urls, parent);
-        // major hack here...!
-        try{
-            customClasses.put("org.w3c.dom.Node",super.loadClass("org.w3c.dom.Node",false));
-        } catch (Exception e) { /* ignore */ }
+        this.warmUp = warmUp;
+        if (warmUp) warmUp(urls);
     }
 
     /**
-     * loads a class using the name of the class
+     * loads a class using the name of the class, looking for it where the
+     * delegation policy says
      */
     protected Class loadClass(final String name, boolean resolve) throws ClassNotFoundException {
+        // Compiled classes come first: a newer copy replaces the one this
+        // loader may have recorded.
+        if (!compiledClasses.isEmpty()) {
+            CompiledClassLoader compiled = compiledClasses.get(name);
+            if (compiled != null) return compiled.loadClass(name, resolve);
+        }
+
         Class c = this.findLoadedClass(name);
         if (c != null) return c;
-        c = (Class) customClasses.get(name);
-        if (c != null) return c;
-        
-        try {
-            c = oldFindClass(name);
-        } catch (ClassNotFoundException cnfe) {
-            // IGNORE
+
+        DelegationPolicy.Rule rule = delegationPolicy.ruleFor(name);
+        if (rule == DelegationPolicy.Rule.BLOCKED) throw new ClassNotFoundException(name);
+
+        synchronized (getClassLoadingLock(name)) {
+            c = this.findLoadedClass(name);
+            if (c == null && rule == DelegationPolicy.Rule.PARENT_FIRST) {
+                try {
+                    // findClass() never finds anything, so this only asks the parent.
+                    c = super.loadClass(name, false);
+                } catch (ClassNotFoundException cnfe) {
+                    // IGNORE
+                }
+            }
+            if (c == null) {
+                try {
+                    LauncherMetrics metrics = this.metrics;
+                    long start = metrics == null ? 0L : System.nanoTime();
+                    c = oldFindClass(name);
+                    if (metrics != null) metrics.classLoaded(System.nanoTime() - start);
+                    Queue<String> recorded = recordedClasses;
+                    if (recorded != null) recorded.add(name);
+                } catch (ClassNotFoundException cnfe) {
+                    if (rule == DelegationPolicy.Rule.CHILD_ONLY) throw cnfe;
+                }
+            }
+            if (c == null) c = super.loadClass(name, false);
+
+            if (resolve) resolveClass(c);
+
+            return c;
+        }
+    }
+
+    /**
+     * makes this loader return the given classes, compiled ahead of time
+     * (see {@link ScriptClassCache}), rather than look for them. The classes
+     * are defined when first asked for, in a loader of their own, so that
+     * classes given again, e.g. after their source changed, replace those
+     * given before instead of being ignored. Classes this loader already
+     * found on its classpath are kept.
+     */
+    void addCompiledClasses(Map<String, byte[]> classes) {
+        CompiledClassLoader compiled = new CompiledClassLoader(this, classes);
+        for (String name : classes.keySet()) {
+            Class c = findLoadedClass(name);
+            if (c == null || c.getClassLoader() instanceof CompiledClassLoader) compiledClasses.put(name, compiled);
         }
-        if (c == null) c = super.loadClass(name, resolve);
+    }
+
+    /**
+     * returns the number of classes defined from those given to
+     * {@link #addCompiledClasses(Map)}, i.e. that were asked for
+     */
+    int getCompiledClassCount() {
+        return compiledClassCount.get();
+    }
+
+    /**
+     * defines a set of compiled classes, taking those it was given before
+     * asking its parent, so that the classes of a set see each other rather
+     * than those of a newer set
+     */
+    private static class CompiledClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+        private final AtomicInteger definedCount;
+
+        CompiledClassLoader(RootLoader parent, Map<String, byte[]> classes) {
+            super(parent);
+            this.classes = new ConcurrentHashMap<String, byte[]>(classes);
+            this.definedCount = parent.compiledClassCount;
+        }
+
+        protected Class loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!classes.containsKey(name)) return super.loadClass(name, resolve);
+
+            synchronized (this) {
+                Class c = findLoadedClass(name);
+                if (c == null) {
+                    byte[] bytes = classes.get(name);
+                    c = defineClass(name, bytes, 0, bytes.length);
+                    definedCount.incrementAndGet();
+                }
+                if (resolve) resolveClass(c);
+                return c;
+            }
+        }
+    }
+
+    /**
+     * returns the policy deciding where classes are looked for
+     */
+    public DelegationPolicy getDelegationPolicy() {
+        return delegationPolicy;
+    }
+
+    /**
+     * sets the policy deciding where classes are looked for; only affects
+     * classes that have not been loaded yet
+     */
+    public void setDelegationPolicy(DelegationPolicy delegationPolicy) {
+        if (delegationPolicy == null) throw new IllegalArgumentException("'delegationPolicy' cannot be null");
+        this.delegationPolicy = delegationPolicy;
+    }
 
-        if (resolve) resolveClass(c);
+    /**
+     * starts recording the names of the classes defined by this loader,
+     * in the order they are defined
+     */
+    public void startRecording() {
+        recordedClasses = new ConcurrentLinkedQueue<String>();
+    }
 
-        return c;
+    /**
+     * stops recording and returns the names of the classes defined by this
+     * loader since {@link #startRecording()} was called
+     */
+    public List<String> stopRecording() {
+        Queue<String> recorded = recordedClasses;
+        recordedClasses = null;
+        return recorded == null ? new ArrayList<String>() : new ArrayList<String>(recorded);
     }
 
     /**
      * returns the URL of a resource, or null if it is not found
      */
     public URL getResource(String name) {
+        LauncherMetrics metrics = this.metrics;
+        if (metrics != null) metrics.resourceLookup();
         URL url = findResource(name);
         if (url == null) url = super.getResource(name);
         return url;
     }
 
+    /**
+     * returns the URLs of all the resources of the given name
+     */
+    public Enumeration<URL> getResources(String name) throws IOException {
+        LauncherMetrics metrics = this.metrics;
+        if (metrics != null) metrics.resourceLookup();
+        return super.getResources(name);
+    }
+
+    /**
+     * returns the metrics the classes and resources loaded by this loader are
+     * counted in, if any
+     */
+    public LauncherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * sets the metrics the classes and resources loaded by this loader are
+     * counted in; null stops counting
+     */
+    public void setMetrics(LauncherMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * adds an url to the classpath of this classloader
      */
     public void addURL(URL url) {
         super.addURL(url);
+        if (warmUp) warmUp(new URL[]{url});
+    }
+
+    /**
+     * returns the jars that could not be opened when validating the
+     * classpath, with the reason why
+     */
+    public Map<URL, String> getInvalidJars() {
+        return Collections.unmodifiableMap(invalidJars);
+    }
+
+    /**
+     * returns true if the jars of the classpath are validated as they are
+     * added, see {@link #RootLoader(URL[], ClassLoader, boolean)}
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * returns the time spent validating the classpath, in milliseconds
+     */
+    public long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+
+    /**
+     * returns the time elapsed since this loader was created, in milliseconds
+     */
+    public long getAgeMillis() {
+        return (System.nanoTime() - creationTime) / 1000000L;
+    }
+
+    /**
+     * checks that the given jars can be opened as jars, recording those that
+     * cannot, since the URL class path would skip them without a word
+     */
+    private void warmUp(URL[] urls) {
+        long start = System.nanoTime();
+
+        for (URL url : urls) {
+            File file = ClasspathFingerprint.toFile(url);
+            if (file == null || file.isDirectory()) continue;
+            String problem = checkJar(file);
+            if (problem != null) invalidJars.put(url, problem);
+        }
+
+        warmUpMillis += (System.nanoTime() - start) / 1000000L;
+    }
+
+    private static String checkJar(File file) {
+        if (!file.isFile()) return "No such file";
+        try {
+            // Reads the central directory, so truncated or corrupt jars are caught too.
+            new ZipFile(file).close();
+        } catch (IOException e) {
+            return "Not a valid jar: " + e.getMessage();
+        }
+        return null;
     }
 
     private Class oldFindClass(String name) throws ClassNotFoundException {
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * System properties that can be overridden for the duration of a launch,
+ * so that launches running at the same time in one JVM, e.g. in different
+ * environments, do not see each other's <code>griffon.env</code>, work
+ * directories or verbose flags.
+ * <p>
+ * While at least one scope is open, the JVM's system properties are
+ * replaced by an instance of this class. Reads and writes made by a thread
+ * in a scope, and by the threads it starts, go to the overlay of that
+ * scope. Reads fall back to the scopes it was opened in, then to the global
+ * properties. Reads and writes made outside any scope go to the global
+ * properties as usual. Once a scope is closed, the threads it started that
+ * are still running use the scope it was opened in, or the global
+ * properties, as if it had never been opened. The original
+ * properties, with any global change, are put back when the last scope is
+ * closed.
+ * <p>
+ * Threads created before a scope is opened, such as those of a pool, do not
+ * see it. Iterating over the properties through the <code>Map</code> views
+ * only shows the global properties; use {@link #stringPropertyNames()}.
+ */
+public class ScopedSystemProperties extends Properties {
+    private static final long serialVersionUID = 1L;
+
+    private static final InheritableThreadLocal<Scope> CURRENT = new InheritableThreadLocal<Scope>();
+    private static ScopedSystemProperties installed;
+    private static Properties original;
+    private static int openScopes;
+
+    /**
+     * The overrides of a launch. Closing it restores the scope the thread
+     * was in before.
+     */
+    public static class Scope {
+        private final Map<String, String> overlay = new ConcurrentHashMap<String, String>();
+        private final Set<String> removed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Scope previous;
+        private volatile boolean closed;
+
+        private Scope(Scope previous) {
+            this.previous = previous;
+        }
+
+        public void close() {
+            synchronized (ScopedSystemProperties.class) {
+                if (closed) return;
+                closed = true;
+                if (CURRENT.get() == this) CURRENT.set(previous);
+                uninstall();
+            }
+        }
+    }
+
+    private ScopedSystemProperties() {
+    }
+
+    /**
+     * Returns the innermost open scope of the current thread, if any.
+     */
+    private static Scope current() {
+        Scope scope = CURRENT.get();
+        while (scope != null && scope.closed) scope = scope.previous;
+        return scope;
+    }
+
+    /**
+     * Opens a scope for the current thread and the threads it starts, with
+     * the given properties overridden.
+     */
+    public static Scope open(Map<String, String> overrides) {
+        synchronized (ScopedSystemProperties.class) {
+            install();
+            Scope scope = new Scope(current());
+            if (overrides != null) scope.overlay.putAll(overrides);
+            CURRENT.set(scope);
+            return scope;
+        }
+    }
+
+    private static void install() {
+        if (openScopes++ > 0) return;
+        original = System.getProperties();
+        installed = new ScopedSystemProperties();
+        for (String name : original.stringPropertyNames()) {
+            installed.putGlobal(name, original.getProperty(name));
+        }
+        System.setProperties(installed);
+    }
+
+    private static void uninstall() {
+        if (--openScopes > 0) return;
+        // Someone else may have replaced the properties in the meantime.
+        if (System.getProperties() == installed) {
+            original.clear();
+            for (Map.Entry<Object, Object> entry : installed.globalEntries()) {
+                original.put(entry.getKey(), entry.getValue());
+            }
+            System.setProperties(original);
+        }
+        installed = null;
+        original = null;
+    }
+
+    private void putGlobal(String name, String value) {
+        super.put(name, value);
+    }
+
+    private Set<Map.Entry<Object, Object>> globalEntries() {
+        return super.entrySet();
+    }
+
+    @Override
+    public String getProperty(String key) {
+        for (Scope scope = current(); scope != null; scope = scope.previous) {
+            if (scope.closed) continue;
+            if (scope.removed.contains(key)) return null;
+            String value = scope.overlay.get(key);
+            if (value != null) return value;
+        }
+        return super.getProperty(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        return key instanceof String ? getProperty((String) key) : super.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Object put(Object key, Object value) {
+        Scope scope = current();
+        if (scope == null || !(key instanceof String) || !(value instanceof String)) return super.put(key, value);
+
+        Object previous = get(key);
+        scope.overlay.put((String) key, (String) value);
+        scope.removed.remove(key);
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Scope scope = current();
+        if (scope == null || !(key instanceof String)) return super.remove(key);
+
+        Object previous = get(key);
+        scope.overlay.remove(key);
+        scope.removed.add((String) key);
+        return previous;
+    }
+
+    @Override
+    public Set<String> stringPropertyNames() {
+        // Apply the open scopes from the outermost one.
+        LinkedList<Scope> scopes = new LinkedList<Scope>();
+        for (Scope scope = current(); scope != null; scope = scope.previous) {
+            if (!scope.closed) scopes.addFirst(scope);
+        }
+        Set<String> names = new TreeSet<String>(super.stringPropertyNames());
+        for (Scope scope : scopes) {
+            names.removeAll(scope.removed);
+            names.addAll(scope.overlay.keySet());
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    @Override
+    public Enumeration<?> propertyNames() {
+        return Collections.enumeration(stringPropertyNames());
+    }
+}
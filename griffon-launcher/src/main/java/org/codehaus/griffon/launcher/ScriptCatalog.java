@@ -0,0 +1,346 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * An index of the Griffon scripts available to a project, built once from
+ * the Griffon distribution, the project and its plugins, and persisted so
+ * that later launches can check commands without scanning them again.
+ * <p>
+ * The index is rebuilt whenever one of its sources changes: script
+ * directories are checked through their modification time (which changes
+ * when scripts are added or removed), jars through their size and
+ * modification time.
+ * <p>
+ * Unknown commands are rejected with suggestions of similarly named
+ * scripts, before Griffon is even bootstrapped. Known ones are still looked
+ * up by Griffon itself when they are launched, since its script runner only
+ * takes a name. Jars that cannot be read are skipped, as the class loader
+ * would skip them, and reported by {@link #getUnreadableJars()}.
+ */
+public class ScriptCatalog {
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String SCRIPT_PREFIX = "script.";
+    private static final String UNREADABLE_PREFIX = "unreadable.";
+
+    private final File indexFile;
+    private final List<File> scriptDirs = new ArrayList<File>();
+    private final List<File> pluginsDirs = new ArrayList<File>();
+    private final List<File> scriptJars = new ArrayList<File>();
+
+    private Map<String, String> scripts;
+    private Map<String, String> unreadableJars;
+
+    /**
+     * @param indexFile The file the index is persisted in.
+     */
+    public ScriptCatalog(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Adds a directory containing Griffon scripts, such as the
+     * <code>scripts</code> directory of the project.
+     */
+    public synchronized void addScriptsDir(File dir) {
+        scriptDirs.add(dir);
+        scripts = null;
+    }
+
+    /**
+     * Adds a directory containing installed plugins. The scripts of each
+     * plugin are expected in its <code>scripts</code> directory.
+     */
+    public synchronized void addPluginsDir(File dir) {
+        pluginsDirs.add(dir);
+        scripts = null;
+    }
+
+    /**
+     * Adds a jar that may contain packaged scripts, such as
+     * griffon-scripts. Jars are recognized by their content, so any jar of
+     * the classpath may be added: those without scripts add nothing.
+     */
+    public synchronized void addScriptsJar(File jar) {
+        scriptJars.add(jar);
+        scripts = null;
+    }
+
+    /**
+     * Returns the names of all the scripts in the catalog.
+     */
+    public synchronized Set<String> getScriptNames() {
+        return Collections.unmodifiableSet(scripts().keySet());
+    }
+
+    /**
+     * Returns the jars that could not be scanned for scripts, with the
+     * reason why.
+     */
+    public synchronized Map<String, String> getUnreadableJars() {
+        scripts();
+        return Collections.unmodifiableMap(unreadableJars);
+    }
+
+    /**
+     * Returns <code>true</code> if the catalog contains the given script.
+     */
+    public synchronized boolean contains(String script) {
+        return scripts().containsKey(script);
+    }
+
+    /**
+     * Returns the source file of the given script, or <code>null</code> if
+     * it is unknown or only available packaged in a jar.
+     */
+    public synchronized File getScriptFile(String script) {
+        String location = scripts().get(script);
+        if (location == null || location.startsWith("jar:")) return null;
+        return new File(location);
+    }
+
+    /**
+     * Resolves a script or command name, e.g. "RunApp" or "run-app", to the
+     * name of a script in the catalog.
+     *
+     * @throws IllegalArgumentException if there is no such script. The
+     *                                  message suggests similar commands.
+     */
+    public synchronized String resolve(String name) {
+        if (name == null || name.trim().length() == 0) {
+            throw new IllegalArgumentException("'script' cannot be blank");
+        }
+
+        if (contains(name)) return name;
+        String scriptName = NameUtils.toScriptName(name);
+        if (contains(scriptName)) return scriptName;
+
+        StringBuilder message = new StringBuilder("Unknown Griffon command '" + NameUtils.toCommandName(scriptName) + "'");
+        List<String> suggestions = suggest(scriptName);
+        if (!suggestions.isEmpty()) {
+            message.append(", did you mean: ");
+            for (int i = 0; i < suggestions.size(); i++) {
+                if (i > 0) message.append(", ");
+                message.append(NameUtils.toCommandName(suggestions.get(i)));
+            }
+            message.append('?');
+        }
+        throw new IllegalArgumentException(message.toString());
+    }
+
+    private List<String> suggest(String scriptName) {
+        String command = NameUtils.toCommandName(scriptName);
+        int maxDistance = Math.max(2, command.length() / 3);
+
+        // Sort by distance, then by name.
+        TreeMap<String, String> ranked = new TreeMap<String, String>();
+        for (String candidate : scripts().keySet()) {
+            if (candidate.startsWith("_")) continue;
+            String candidateCommand = NameUtils.toCommandName(candidate);
+            int distance = candidateCommand.startsWith(command) ? 0 : distance(command, candidateCommand);
+            if (distance <= maxDistance) {
+                ranked.put(String.format("%03d %s", distance, candidate), candidate);
+            }
+        }
+
+        List<String> suggestions = new ArrayList<String>(ranked.values());
+        return suggestions.size() > 5 ? suggestions.subList(0, 5) : suggestions;
+    }
+
+    private static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private Map<String, String> scripts() {
+        if (scripts != null) return scripts;
+
+        String fingerprint = fingerprint();
+        Properties index = load();
+        if (!fingerprint.equals(index.getProperty(FINGERPRINT))) {
+            index = scan();
+            index.setProperty(FINGERPRINT, fingerprint);
+            store(index);
+        }
+
+        scripts = new TreeMap<String, String>();
+        unreadableJars = new TreeMap<String, String>();
+        for (String key : index.stringPropertyNames()) {
+            if (key.startsWith(SCRIPT_PREFIX)) {
+                scripts.put(key.substring(SCRIPT_PREFIX.length()), index.getProperty(key));
+            } else if (key.startsWith(UNREADABLE_PREFIX)) {
+                unreadableJars.put(key.substring(UNREADABLE_PREFIX.length()), index.getProperty(key));
+            }
+        }
+        return scripts;
+    }
+
+    private String fingerprint() {
+        List<File> sources = new ArrayList<File>(scriptDirs);
+        for (File pluginsDir : pluginsDirs) {
+            sources.add(pluginsDir);
+            for (File plugin : listDirs(pluginsDir)) {
+                sources.add(new File(plugin, "scripts"));
+            }
+        }
+        sources.addAll(scriptJars);
+        return ClasspathFingerprint.shallowOf(sources);
+    }
+
+    private Properties scan() {
+        Properties index = new Properties();
+
+        // Scan in reverse order of precedence, so that earlier sources win.
+        for (int i = scriptJars.size() - 1; i >= 0; i--) {
+            scanJar(scriptJars.get(i), index);
+        }
+        for (int i = pluginsDirs.size() - 1; i >= 0; i--) {
+            for (File plugin : listDirs(pluginsDirs.get(i))) {
+                scanDir(new File(plugin, "scripts"), index);
+            }
+        }
+        for (int i = scriptDirs.size() - 1; i >= 0; i--) {
+            scanDir(scriptDirs.get(i), index);
+        }
+        return index;
+    }
+
+    private static void scanDir(File dir, Properties index) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(".groovy")) {
+                index.setProperty(SCRIPT_PREFIX + name.substring(0, name.length() - ".groovy".length()),
+                    file.getAbsolutePath());
+            }
+        }
+    }
+
+    private static void scanJar(File jar, Properties index) {
+        if (!jar.isFile()) return;
+        try {
+            JarFile jarFile = new JarFile(jar);
+            try {
+                for (Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                    String name = scriptName(entries.nextElement().getName());
+                    if (name != null) index.setProperty(SCRIPT_PREFIX + name, "jar:" + jar.getAbsolutePath());
+                }
+            } finally {
+                jarFile.close();
+            }
+        } catch (IOException e) {
+            index.setProperty(UNREADABLE_PREFIX + jar.getAbsolutePath(), String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Returns the name of the script a jar entry contains, if any. Scripts are
+     * either packaged as sources under <code>scripts/</code> or precompiled
+     * in the default package with a trailing underscore.
+     */
+    private static String scriptName(String entry) {
+        String name = null;
+        if (entry.startsWith("scripts/") && entry.endsWith(".groovy") && entry.indexOf('/', 8) < 0) {
+            name = entry.substring(8, entry.length() - ".groovy".length());
+        } else if (entry.endsWith("_.class") && entry.indexOf('/') < 0 && entry.indexOf('$') < 0) {
+            name = entry.substring(0, entry.length() - "_.class".length());
+        }
+        return name == null || name.length() == 0 ? null : name;
+    }
+
+    private static List<File> listDirs(File dir) {
+        List<File> dirs = new ArrayList<File>();
+        File[] files = dir.listFiles();
+        if (files == null) return dirs;
+        for (File file : files) {
+            if (file.isDirectory()) dirs.add(file);
+        }
+        Collections.sort(dirs);
+        return dirs;
+    }
+
+    private Properties load() {
+        Properties index = new Properties();
+        if (!indexFile.isFile()) return index;
+        try {
+            InputStream in = new FileInputStream(indexFile);
+            try {
+                index.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // A corrupt index is simply rebuilt.
+            index.clear();
+        }
+        return index;
+    }
+
+    private void store(Properties index) {
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+
+        // The index is only a cache, so failing to persist it is not an error.
+        File tmp = new File(dir, indexFile.getName() + ".tmp" + System.nanoTime());
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                index.store(out, "Griffon script catalog");
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(indexFile)) {
+                indexFile.delete();
+                tmp.renameTo(indexFile);
+            }
+        } catch (IOException e) {
+            // ignore
+        } finally {
+            tmp.delete();
+        }
+    }
+}
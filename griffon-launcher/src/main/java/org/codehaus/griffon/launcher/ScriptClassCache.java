@@ -0,0 +1,331 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileLock;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A persistent cache of compiled Griffon scripts, so that Griffon does not
+ * have to compile the same script sources on every launch.
+ * <p>
+ * Entries are content addressed: the key of a script is a digest of its
+ * source, the Griffon version, the classpath fingerprint and the compiler
+ * settings, so an entry can never be stale and changing any of them simply
+ * makes a new one. The classes of a cached script are handed to the
+ * {@link RootLoader} before the launch, under the name of the script
+ * source, and only defined if Griffon asks the loader for that class: a
+ * Griffon version that compiles the source itself, in a loader of its own,
+ * gains nothing from the cache. A launcher that runs a script again after
+ * it changed hands the new classes to the same loader, which defines them
+ * in a fresh loader of their own rather than return those it defined
+ * before.
+ * <p>
+ * The cache can be shared, e.g. by the jobs of a CI server: entries are
+ * written to a temporary file and renamed, so they are never seen half
+ * written, and a file lock stops several processes compiling the same
+ * script at once. Unreadable entries are discarded and compiled again.
+ * <p>
+ * Scripts are compiled with the Groovy compiler of the Griffon
+ * distribution, through reflection, and with a copy of
+ * <code>CompilerConfiguration.DEFAULT</code>, which is the configuration
+ * Gant parses the scripts of Griffon with: both read the
+ * <code>groovy.*</code> system properties, such as the source encoding
+ * and the target bytecode, so the classes are those Griffon would compile.
+ */
+public class ScriptClassCache {
+    private static final int FORMAT = 0x47534301;
+    // org.codehaus.groovy.control.Phases.CLASS_GENERATION
+    private static final int CLASS_GENERATION = 7;
+    private static final Pattern INCLUDE = Pattern.compile("griffonScript\\(\\s*[\"'](\\w+)[\"']\\s*\\)");
+
+    // File locks are held by the JVM, not by threads, so they cannot keep
+    // threads of the same JVM apart.
+    private static final Object COMPILE_LOCK = new Object();
+
+    private final File cacheDir;
+    private final RootLoader loader;
+    private final String griffonVersion;
+    private final String classpathFingerprint;
+    // The key of the classes last handed to the loader, by script class.
+    private final Map<String, String> loadedKeys = new HashMap<String, String>();
+    private String compilerSettings;
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * @param cacheDir       The directory the compiled scripts are kept in.
+     * @param loader         The loader to define the compiled scripts in.
+     * @param griffonVersion The version of Griffon the scripts are for.
+     */
+    public ScriptClassCache(File cacheDir, RootLoader loader, String griffonVersion) {
+        this.cacheDir = cacheDir;
+        this.loader = loader;
+        this.griffonVersion = griffonVersion;
+        this.classpathFingerprint = ClasspathFingerprint.of(loader.getURLs());
+    }
+
+    /**
+     * Loads the compiled classes of a script, and of the scripts it includes
+     * through <code>griffonScript(...)</code>, compiling and caching those
+     * that are not cached yet. Scripts that are only available packaged in
+     * a jar are already compiled and ignored.
+     */
+    public synchronized void preload(String script, ScriptCatalog catalog) {
+        preload(script, catalog, new HashSet<String>());
+    }
+
+    private void preload(String script, ScriptCatalog catalog, Set<String> seen) {
+        if (!seen.add(script)) return;
+        File source = catalog.getScriptFile(script);
+        if (source == null) return;
+
+        load(source);
+        Matcher includes = INCLUDE.matcher(readSource(source));
+        while (includes.find()) {
+            preload(includes.group(1), catalog, seen);
+        }
+    }
+
+    /**
+     * Loads the compiled classes of a script, compiling and caching them
+     * if needed.
+     *
+     * @return the name of the script class.
+     */
+    public synchronized String load(File source) {
+        String text = readSource(source);
+        String key = key(source.getName(), text);
+        File entry = new File(cacheDir, key + ".classes");
+
+        Map<String, byte[]> classes = read(entry);
+        if (classes == null) {
+            missCount++;
+            classes = compileAndStore(source, entry, key);
+        } else {
+            hitCount++;
+        }
+
+        String mainClass = classes.keySet().iterator().next();
+        if (!key.equals(loadedKeys.put(mainClass, key))) loader.addCompiledClasses(classes);
+        return mainClass;
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    private String key(String name, String text) {
+        MessageDigest digest = ClasspathFingerprint.newDigest();
+        try {
+            digest.update((FORMAT + "\n" + griffonVersion + "\n" + classpathFingerprint + "\n" +
+                compilerSettings() + "\n" + name + "\n").getBytes("UTF-8"));
+            digest.update(text.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return ClasspathFingerprint.toHex(digest.digest());
+    }
+
+    /**
+     * Returns the settings of the compiler configuration that change the
+     * classes compiled.
+     */
+    private String compilerSettings() {
+        if (compilerSettings == null) {
+            try {
+                Object config = newCompilerConfiguration();
+                Class<?> configClass = config.getClass();
+                compilerSettings = configClass.getMethod("getSourceEncoding").invoke(config) + "\n" +
+                    configClass.getMethod("getTargetBytecode").invoke(config) + "\n" +
+                    configClass.getMethod("getScriptBaseClass").invoke(config);
+            } catch (InvocationTargetException e) {
+                throw new RuntimeException("Unable to read the compiler configuration", e.getCause());
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to read the compiler configuration", e);
+            }
+        }
+        return compilerSettings;
+    }
+
+    private Object newCompilerConfiguration() throws Exception {
+        Class<?> configClass = loader.loadClass("org.codehaus.groovy.control.CompilerConfiguration");
+        return configClass.getConstructor(configClass).newInstance(configClass.getField("DEFAULT").get(null));
+    }
+
+    private Map<String, byte[]> compileAndStore(File source, File entry, String key) {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new RuntimeException("Unable to create directory " + cacheDir);
+        }
+
+        synchronized (COMPILE_LOCK) {
+            try {
+                RandomAccessFile lockFile = new RandomAccessFile(new File(cacheDir, key + ".lock"), "rw");
+                try {
+                    FileLock lock = lockFile.getChannel().lock();
+                    try {
+                        // Another process may have compiled it while we waited.
+                        Map<String, byte[]> classes = read(entry);
+                        if (classes == null) {
+                            classes = compile(source);
+                            write(entry, classes);
+                        }
+                        return classes;
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    lockFile.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to cache the compiled script " + source, e);
+            }
+        }
+    }
+
+    /**
+     * Compiles a script with the Groovy compiler available to the loader,
+     * and returns its classes, the script class first.
+     */
+    private Map<String, byte[]> compile(File source) {
+        try {
+            Class<?> configClass = loader.loadClass("org.codehaus.groovy.control.CompilerConfiguration");
+            Class<?> groovyLoaderClass = loader.loadClass("groovy.lang.GroovyClassLoader");
+            Class<?> unitClass = loader.loadClass("org.codehaus.groovy.control.CompilationUnit");
+
+            Object config = newCompilerConfiguration();
+            Object groovyLoader = groovyLoaderClass.getConstructor(ClassLoader.class, configClass).newInstance(loader, config);
+            Object unit = unitClass.getConstructor(configClass, CodeSource.class, groovyLoaderClass)
+                .newInstance(config, null, groovyLoader);
+            unitClass.getMethod("addSource", File.class).invoke(unit, source);
+            unitClass.getMethod("compile", int.class).invoke(unit, CLASS_GENERATION);
+
+            String scriptName = source.getName().replaceFirst("\\.groovy$", "");
+            Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+            Map<String, byte[]> others = new LinkedHashMap<String, byte[]>();
+            for (Object groovyClass : (List<?>) unitClass.getMethod("getClasses").invoke(unit)) {
+                String name = (String) groovyClass.getClass().getMethod("getName").invoke(groovyClass);
+                byte[] bytes = (byte[]) groovyClass.getClass().getMethod("getBytes").invoke(groovyClass);
+                (name.equals(scriptName) ? classes : others).put(name, bytes);
+            }
+            classes.putAll(others);
+            if (classes.isEmpty()) throw new IllegalStateException("No class compiled from " + source);
+            return classes;
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("Unable to compile " + source, e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to compile " + source, e);
+        }
+    }
+
+    /**
+     * Reads a cache entry, or returns <code>null</code> if there is none or
+     * it cannot be read, in which case it is removed.
+     */
+    private static Map<String, byte[]> read(File entry) {
+        if (!entry.isFile()) return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+            try {
+                if (in.readInt() != FORMAT) throw new IOException("Unknown format");
+                int count = in.readInt();
+                Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    classes.put(name, bytes);
+                }
+                if (classes.isEmpty() || in.read() != -1) throw new IOException("Corrupt entry");
+                return classes;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            entry.delete();
+            return null;
+        }
+    }
+
+    private static void write(File entry, Map<String, byte[]> classes) throws IOException {
+        File tmp = new File(entry.getParentFile(), entry.getName() + ".tmp" + System.nanoTime());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(FORMAT);
+                out.writeInt(classes.size());
+                for (Map.Entry<String, byte[]> cls : classes.entrySet()) {
+                    out.writeUTF(cls.getKey());
+                    out.writeInt(cls.getValue().length);
+                    out.write(cls.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(entry)) {
+                entry.delete();
+                if (!tmp.renameTo(entry)) throw new IOException("Unable to rename " + tmp + " to " + entry);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static String readSource(File source) {
+        try {
+            InputStream in = new FileInputStream(source);
+            try {
+                byte[] bytes = new byte[(int) source.length()];
+                int read = 0;
+                while (read < bytes.length) {
+                    int n = in.read(bytes, read, bytes.length - read);
+                    if (n < 0) break;
+                    read += n;
+                }
+                return new String(bytes, 0, read, "UTF-8");
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read " + source, e);
+        }
+    }
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+
+/**
+ * Runs the tests of a project on several isolated launchers at once, each
+ * with its own {@link RootLoader}, work directory and system properties
+ * (see {@link GriffonLauncher#setScopedSystemProperties(boolean)}), then
+ * merges their JUnit XML reports into the project's test reports directory.
+ * <p>
+ * Each shard compiles and packages into directories of its own, under its
+ * work directory, since <code>test-app</code> runs the compile and package
+ * steps again and shards must not write to the same directories at once.
+ * The project is still compiled only once: the first shard compiles it
+ * before the shards start, and its classes are copied, with their
+ * timestamps, to the other shards, whose compile step then finds them up
+ * to date. The work directories and the test reports directory are emptied
+ * before every run, so that reports of test classes that moved to another
+ * shard are never merged.
+ * <p>
+ * Test classes are assigned to shards longest first, each to the shard with
+ * the least work so far, using the durations recorded in a timings file by
+ * previous runs, so that shards finish close together. Classes without a
+ * recorded duration are assumed to take the average time.
+ * <p>
+ * Test classes are passed to <code>test-app</code> as patterns, i.e. without
+ * their <code>Tests</code>, <code>Test</code> or <code>Spec</code> suffix.
+ */
+public class ShardedTestRunner {
+    private static final String[] TEST_SUFFIXES = {"Tests", "Test", "Spec"};
+    private static final String REPORT_PREFIX = "TEST-";
+    private static final String AGGREGATE_REPORT = "TESTS-TestSuites.xml";
+
+    /**
+     * Configures the launcher of a shard, e.g. with its dependencies, before
+     * the tests run. The work directories are set up by the runner.
+     */
+    public interface Configurer {
+        void configure(GriffonLauncher launcher, int shard);
+    }
+
+    private final URL[] classpath;
+    private final String griffonHome;
+    private final String baseDir;
+    private int shards = Runtime.getRuntime().availableProcessors();
+    private File workDir;
+    private File testReportsDir;
+    private File timingsFile;
+    private String environment = "test";
+    private String phases;
+    private Configurer configurer;
+
+    /**
+     * @param classpath   The classpath each shard loads Griffon from.
+     * @param griffonHome Location of a local Griffon installation, may be null.
+     * @param baseDir     The path to the Griffon project.
+     */
+    public ShardedTestRunner(URL[] classpath, String griffonHome, String baseDir) {
+        this.classpath = classpath;
+        this.griffonHome = griffonHome;
+        this.baseDir = baseDir;
+        this.workDir = new File(baseDir, "target/test-shards");
+        this.testReportsDir = new File(baseDir, "target/test-reports");
+        this.timingsFile = new File(baseDir, "target/test-timings.properties");
+    }
+
+    public void setShards(int shards) {
+        if (shards < 1) throw new IllegalArgumentException("'shards' must be at least 1");
+        this.shards = shards;
+    }
+
+    /**
+     * Sets the directory under which each shard gets its own work directory.
+     */
+    public void setWorkDir(File workDir) {
+        this.workDir = workDir;
+    }
+
+    /**
+     * Sets the directory the reports of all the shards are merged into.
+     */
+    public void setTestReportsDir(File testReportsDir) {
+        this.testReportsDir = testReportsDir;
+    }
+
+    /**
+     * Sets the file the duration of each test class is recorded in.
+     */
+    public void setTimingsFile(File timingsFile) {
+        this.timingsFile = timingsFile;
+    }
+
+    public void setEnvironment(String environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Sets the test phases or types to run, e.g. "unit:", which are passed
+     * to <code>test-app</code> before the test patterns.
+     */
+    public void setPhases(String phases) {
+        this.phases = phases;
+    }
+
+    public void setConfigurer(Configurer configurer) {
+        this.configurer = configurer;
+    }
+
+    /**
+     * Finds the test classes under the given test source directory, e.g.
+     * <code>test/unit</code>.
+     */
+    public static List<String> findTestClasses(File testDir) {
+        List<String> classes = new ArrayList<String>();
+        findTestClasses(testDir, "", classes);
+        Collections.sort(classes);
+        return classes;
+    }
+
+    private static void findTestClasses(File dir, String packagePrefix, List<String> classes) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isDirectory()) {
+                findTestClasses(file, packagePrefix + name + ".", classes);
+                continue;
+            }
+
+            int dot = name.lastIndexOf('.');
+            if (dot < 0) continue;
+            String extension = name.substring(dot + 1);
+            String className = name.substring(0, dot);
+            if ((extension.equals("groovy") || extension.equals("java")) && testSuffix(className) != null) {
+                classes.add(packagePrefix + className);
+            }
+        }
+    }
+
+    /**
+     * Runs the given test classes across the shards and merges the reports.
+     *
+     * @return 0 if all the shards succeeded, otherwise the first non-zero
+     *         exit code returned by a shard.
+     */
+    public int run(List<String> testClasses) {
+        // Without any pattern test-app would run the whole suite.
+        if (testClasses.isEmpty()) return 0;
+
+        List<List<String>> assignments = assign(testClasses, loadTimings());
+        cleanWorkDirs();
+
+        final List<GriffonLauncher> launchers = new ArrayList<GriffonLauncher>(assignments.size());
+        try {
+            for (int i = 0; i < assignments.size(); i++) {
+                launchers.add(createLauncher(i));
+            }
+
+            // Compile the project once, so that the shards reuse its classes
+            // instead of each compiling it again.
+            int compileExitCode = launchers.get(0).launch("Compile", "", environment);
+            if (compileExitCode != 0) return compileExitCode;
+            for (int i = 1; i < assignments.size(); i++) {
+                copyTree(new File(getShardDir(0), "classes"), new File(getShardDir(i), "classes"));
+            }
+
+            return runShards(launchers, assignments);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to copy the compiled classes to the shards", e);
+        } finally {
+            for (GriffonLauncher launcher : launchers) {
+                close(launcher);
+            }
+        }
+    }
+
+    private int runShards(final List<GriffonLauncher> launchers, List<List<String>> assignments) {
+        ExecutorService pool = Executors.newFixedThreadPool(assignments.size(), new LauncherThreadFactory("test-shard"));
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        try {
+            for (int i = 0; i < assignments.size(); i++) {
+                final int shard = i;
+                final List<String> classes = assignments.get(i);
+                results.add(pool.submit(new Callable<Integer>() {
+                    public Integer call() {
+                        return runShard(launchers.get(shard), shard, classes);
+                    }
+                }));
+            }
+
+            int exitCode = 0;
+            for (Future<Integer> result : results) {
+                int shardExitCode = result.get();
+                if (exitCode == 0) exitCode = shardExitCode;
+            }
+            return exitCode;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            pool.shutdownNow();
+            mergeReports(assignments.size());
+        }
+    }
+
+    /**
+     * Assigns the test classes to shards, longest first, each to the shard
+     * with the least estimated work so far. Empty shards are dropped.
+     */
+    List<List<String>> assign(List<String> testClasses, final Properties timings) {
+        double total = 0;
+        int known = 0;
+        for (String testClass : testClasses) {
+            String time = timings.getProperty(testClass);
+            if (time != null) {
+                total += Double.parseDouble(time);
+                known++;
+            }
+        }
+        final double average = known == 0 ? 1.0 : total / known;
+
+        List<String> sorted = new ArrayList<String>(testClasses);
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return Double.compare(duration(b, timings, average), duration(a, timings, average));
+            }
+        });
+
+        int count = Math.min(shards, Math.max(1, sorted.size()));
+        List<List<String>> assignments = new ArrayList<List<String>>(count);
+        double[] loads = new double[count];
+        for (int i = 0; i < count; i++) {
+            assignments.add(new ArrayList<String>());
+        }
+        for (String testClass : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < count; i++) {
+                if (loads[i] < loads[lightest]) lightest = i;
+            }
+            assignments.get(lightest).add(testClass);
+            loads[lightest] += duration(testClass, timings, average);
+        }
+        return assignments;
+    }
+
+    private static double duration(String testClass, Properties timings, double average) {
+        String time = timings.getProperty(testClass);
+        return time == null ? average : Double.parseDouble(time);
+    }
+
+    private GriffonLauncher createLauncher(int shard) {
+        File shardDir = getShardDir(shard);
+        RootLoader rootLoader = new RootLoader(classpath);
+        GriffonLauncher launcher = new GriffonLauncher(rootLoader, griffonHome, baseDir, true);
+        launcher.setScopedSystemProperties(true);
+        if (configurer != null) configurer.configure(launcher, shard);
+
+        launcher.setProjectWorkDir(shardDir);
+        launcher.setClassesDir(new File(shardDir, "classes"));
+        launcher.setResourcesDir(new File(shardDir, "resources"));
+        launcher.setTestClassesDir(new File(shardDir, "test-classes"));
+        launcher.setTestReportsDir(new File(shardDir, "test-reports"));
+        return launcher;
+    }
+
+    private void close(GriffonLauncher launcher) {
+        launcher.close();
+        try {
+            ((RootLoader) launcher.getClassLoader()).close();
+        } catch (IOException e) {
+            launcher.debug("Unable to close the class loader of a shard: " + e);
+        }
+    }
+
+    private int runShard(GriffonLauncher launcher, int shard, List<String> testClasses) {
+        StringBuilder args = new StringBuilder(phases == null ? "" : phases);
+        for (String testClass : testClasses) {
+            if (args.length() > 0) args.append(' ');
+            args.append(toPattern(testClass));
+        }
+
+        launcher.debug("Running shard " + shard + " with " + testClasses.size() + " test classes");
+        return launcher.launch("TestApp", args.toString(), environment);
+    }
+
+    /**
+     * Deletes the work directories of the shards and the merged test
+     * reports left by a previous run.
+     */
+    void cleanWorkDirs() {
+        delete(workDir);
+        delete(testReportsDir);
+    }
+
+    private static void delete(File file) {
+        File[] files = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            throw new RuntimeException("Unable to delete " + file);
+        }
+    }
+
+    private File getShardDir(int shard) {
+        return new File(workDir, "shard-" + shard);
+    }
+
+    private static String toPattern(String testClass) {
+        String suffix = testSuffix(testClass);
+        return suffix == null ? testClass : testClass.substring(0, testClass.length() - suffix.length());
+    }
+
+    private static String testSuffix(String className) {
+        for (String suffix : TEST_SUFFIXES) {
+            if (className.endsWith(suffix) && className.length() > suffix.length()) return suffix;
+        }
+        return null;
+    }
+
+    /**
+     * Copies the per class reports of every shard into the test reports
+     * directory, writes an aggregate report of all of them and records the
+     * duration of each test class.
+     */
+    private void mergeReports(int shardCount) {
+        Properties timings = loadTimings();
+        List<File> xmlReports = new ArrayList<File>();
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                File shardReports = new File(getShardDir(i), "test-reports");
+                copyReports(shardReports, testReportsDir, xmlReports);
+            }
+
+            for (File report : xmlReports) {
+                recordTiming(report, timings);
+            }
+            writeAggregateReport(xmlReports);
+            storeTimings(timings);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to merge test reports into " + testReportsDir, e);
+        }
+    }
+
+    private static void copyReports(File from, File to, List<File> xmlReports) throws IOException {
+        File[] files = from.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName();
+            File target = new File(to, name);
+            if (file.isDirectory()) {
+                // HTML reports are generated from the XML reports, so the
+                // per shard ones are not worth merging.
+                if (!name.equals("html")) copyReports(file, target, xmlReports);
+            } else if (!name.equals(AGGREGATE_REPORT)) {
+                copy(file, target);
+                if (name.startsWith(REPORT_PREFIX) && name.endsWith(".xml")) xmlReports.add(target);
+            }
+        }
+    }
+
+    private static void recordTiming(File report, Properties timings) {
+        try {
+            Element suite = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(report).getDocumentElement();
+            String name = suite.getAttribute("name");
+            String time = suite.getAttribute("time");
+            if (name.length() > 0 && time.length() > 0) {
+                timings.setProperty(name, String.valueOf(Double.parseDouble(time)));
+            }
+        } catch (Exception e) {
+            // An unreadable report just leaves the timing as it was.
+        }
+    }
+
+    private void writeAggregateReport(List<File> xmlReports) throws IOException {
+        if (xmlReports.isEmpty()) return;
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(testReportsDir, AGGREGATE_REPORT)), "UTF-8");
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuites>\n");
+            for (File report : xmlReports) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(report), "UTF-8"));
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("<?xml")) continue;
+                        out.write(line);
+                        out.write('\n');
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            out.write("</testsuites>\n");
+        } finally {
+            out.close();
+        }
+    }
+
+    private Properties loadTimings() {
+        Properties timings = new Properties();
+        if (timingsFile == null || !timingsFile.isFile()) return timings;
+        try {
+            InputStream in = new FileInputStream(timingsFile);
+            try {
+                timings.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            timings.clear();
+        }
+        return timings;
+    }
+
+    private void storeTimings(Properties timings) throws IOException {
+        if (timingsFile == null) return;
+        File dir = timingsFile.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create directory " + dir);
+        OutputStream out = new FileOutputStream(timingsFile);
+        try {
+            timings.store(out, "Duration of each test class, in seconds");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copies a directory tree, keeping the modification times, so that the
+     * copied classes are as up to date as the originals.
+     */
+    private static void copyTree(File from, File to) throws IOException {
+        File[] files = from.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            File target = new File(to, file.getName());
+            if (file.isDirectory()) {
+                copyTree(file, target);
+            } else {
+                copy(file, target);
+                target.setLastModified(file.lastModified());
+            }
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        File dir = to.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create directory " + dir);
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that threads update without contending with each other: each
+ * thread adds to one of several cells, picked from its id, and the cells are
+ * only summed up when the counter is read. Cells are spaced a cache line
+ * apart so that threads updating neighbouring cells do not slow each other
+ * down either.
+ */
+final class StripedCounter {
+    private static final int PADDING = 8;
+
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    StripedCounter() {
+        int stripes = 1;
+        int wanted = Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+        while (stripes < wanted) stripes <<= 1;
+        mask = stripes - 1;
+        cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    void increment() {
+        add(1L);
+    }
+
+    void add(long delta) {
+        cells.addAndGet(cell(), delta);
+    }
+
+    long sum() {
+        long sum = 0L;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    private int cell() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return (h & mask) * PADDING;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reruns a Griffon script whenever the sources of a project change, on one
+ * launcher that stays bootstrapped from one run to the next.
+ * <pre>
+ *    WatchMode watch = new WatchMode(launcher, "Compile", "");
+ *    watch.addWatchDir(new File(baseDir, "griffon-app"));
+ *    watch.addWatchDir(new File(baseDir, "src"));
+ *    watch.start();
+ * </pre>
+ * Directories are watched recursively, including the ones created later.
+ * A burst of changes, such as a save-all in an IDE, is coalesced into a
+ * single run: the script runs once no change has been seen for the debounce
+ * window.
+ * <p>
+ * Runs never overlap, since a launcher runs one script at a time. Changes
+ * seen while the script runs either queue a single rerun behind it, or, with
+ * {@link RunningLaunchPolicy#CANCEL}, also interrupt it. Whether the script
+ * stops early depends on it checking for interruption.
+ */
+public class WatchMode {
+
+    public enum RunningLaunchPolicy {
+        QUEUE, CANCEL
+    }
+
+    /**
+     * Told about every run of the script.
+     */
+    public interface Listener {
+        void launchFinished(int exitCode, long millis, Set<File> changes);
+
+        void launchFailed(Exception e, Set<File> changes);
+    }
+
+    private final GriffonLauncher launcher;
+    private final String script;
+    private final String args;
+    private final List<File> watchDirs = new ArrayList<File>();
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<WatchKey, Path>();
+    private String environment;
+    private long debounceMillis = 300L;
+    private RunningLaunchPolicy runningLaunchPolicy = RunningLaunchPolicy.QUEUE;
+    private boolean runOnStart = true;
+    private Listener listener;
+
+    private WatchService watchService;
+    private Thread watchThread;
+    private ExecutorService launchExecutor;
+    private Future<?> running;
+    private Set<File> queuedChanges;
+    private int launchCount;
+
+    public WatchMode(GriffonLauncher launcher, String script, String args) {
+        this.launcher = launcher;
+        this.script = script;
+        this.args = args;
+    }
+
+    public void addWatchDir(File dir) {
+        watchDirs.add(dir);
+    }
+
+    public void setEnvironment(String environment) {
+        this.environment = environment;
+    }
+
+    /**
+     * Sets how long no change must be seen after a change before the script
+     * runs. Defaults to 300 ms.
+     */
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    public void setRunningLaunchPolicy(RunningLaunchPolicy runningLaunchPolicy) {
+        this.runningLaunchPolicy = runningLaunchPolicy;
+    }
+
+    /**
+     * Sets whether the script runs once when watching starts, which also
+     * bootstraps the launcher. Defaults to <code>true</code>.
+     */
+    public void setRunOnStart(boolean runOnStart) {
+        this.runOnStart = runOnStart;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching. Returns once the directories are registered.
+     */
+    public synchronized void start() throws IOException {
+        if (watchService != null) throw new IllegalStateException("Already watching");
+        if (watchDirs.isEmpty()) throw new IllegalStateException("No directory to watch");
+
+        watchService = FileSystems.getDefault().newWatchService();
+        for (File dir : watchDirs) register(watchService, dir.toPath());
+
+        launchExecutor = Executors.newSingleThreadExecutor(new LauncherThreadFactory("watch-launch", launcher.getClassLoader()));
+        watchThread = new LauncherThreadFactory("watch").newThread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        });
+        watchThread.start();
+
+        if (runOnStart) changed(Collections.<File>emptySet());
+    }
+
+    /**
+     * Stops watching, interrupting the script if it is running.
+     */
+    public synchronized void stop() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // nothing more to release
+        }
+        launchExecutor.shutdownNow();
+        watchService = null;
+        watchedDirs.clear();
+    }
+
+    /**
+     * Returns the number of times the script was run.
+     */
+    public synchronized int getLaunchCount() {
+        return launchCount;
+    }
+
+    private void register(final WatchService service, Path root) throws IOException {
+        if (!Files.isDirectory(root)) return;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch() {
+        WatchService service = watchService;
+        Set<File> changes = new LinkedHashSet<File>();
+        try {
+            while (true) {
+                // Wait for a first change, then until the changes settle down.
+                WatchKey key = changes.isEmpty() ? service.take() : service.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    changed(changes);
+                    changes = new LinkedHashSet<File>();
+                    continue;
+                }
+
+                Path dir = watchedDirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+                    Path path = dir.resolve((Path) event.context());
+                    changes.add(path.toFile());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+                        Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        register(service, path);
+                    }
+                }
+                if (!key.reset()) watchedDirs.remove(key);
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (IOException e) {
+            launcher.debug("Stopped watching: " + e.getMessage());
+        }
+    }
+
+    private synchronized void changed(Set<File> changes) {
+        if (launchExecutor == null || launchExecutor.isShutdown()) return;
+
+        // A run is already queued, it will pick these changes up too.
+        if (queuedChanges != null) {
+            queuedChanges.addAll(changes);
+            return;
+        }
+
+        queuedChanges = new LinkedHashSet<File>(changes);
+        if (running != null && runningLaunchPolicy == RunningLaunchPolicy.CANCEL) running.cancel(true);
+        running = launchExecutor.submit(new Runnable() {
+            public void run() {
+                launch();
+            }
+        });
+    }
+
+    private void launch() {
+        Set<File> changes;
+        synchronized (this) {
+            changes = Collections.unmodifiableSet(queuedChanges);
+            queuedChanges = null;
+            launchCount++;
+        }
+
+        launcher.debug("Running " + script + " after " + changes.size() + " change(s)");
+        long start = System.nanoTime();
+        try {
+            int exitCode = environment == null ?
+                launcher.launch(script, args) :
+                launcher.launch(script, args, environment);
+            if (listener != null) listener.launchFinished(exitCode, (System.nanoTime() - start) / 1000000L, changes);
+        } catch (Exception e) {
+            if (listener != null) listener.launchFailed(e, changes);
+        }
+    }
+}
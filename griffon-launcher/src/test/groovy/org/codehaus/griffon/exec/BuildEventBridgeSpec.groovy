@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import java.util.concurrent.CountDownLatch
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static org.codehaus.griffon.launcher.BuildEventBridge.OverflowPolicy.*
+
+class BuildEventBridgeSpec extends Specification {
+
+    def gate = new CountDownLatch(1)
+    def received = [].asSynchronized()
+
+    def listener = { events ->
+        gate.await()
+        received.addAll(events*.name)
+    } as LauncherEventListener
+
+    def "events fired through the proxy are delivered in batches"() {
+        given:
+        def bridge = new BuildEventBridge(listener, 16, BLOCK, 16, 1)
+        def proxy = java.lang.reflect.Proxy.newProxyInstance(getClass().classLoader, [EventReceiver] as Class[], bridge)
+
+        when:
+        gate.countDown()
+        proxy.receiveGriffonBuildEvent("StatusUpdate", ["Compiling"] as Object[])
+        proxy.receiveGriffonBuildEvent("StatusFinal", [] as Object[])
+        bridge.close()
+
+        then:
+        received == ["StatusUpdate", "StatusFinal"]
+    }
+
+    @Unroll({"overflowing with $policy keeps $expected"})
+    def "the overflow policy decides which events are kept"() {
+        given:
+        def bridge = new BuildEventBridge(listener, 4, policy, 100, 3)
+
+        when: "the first event is held by the listener, and ten more fill the queue"
+        bridge.enqueue(new LauncherEvent("e0", null, 0))
+        Thread.sleep(300)
+        (1..10).each { bridge.enqueue(new LauncherEvent("e$it", null, 0)) }
+        gate.countDown()
+        bridge.close()
+
+        then:
+        received == expected
+        bridge.droppedCount == 6
+
+        where:
+        policy      | expected
+        DROP_OLDEST | ["e0", "e7", "e8", "e9", "e10"]
+        SAMPLE      | ["e0", "e3", "e4", "e7", "e10"]
+    }
+
+    def "a blocking bridge loses no events"() {
+        given:
+        def bridge = new BuildEventBridge(listener, 4, BLOCK, 100, 1)
+        Thread.start { Thread.sleep(300); gate.countDown() }
+
+        when:
+        (0..10).each { bridge.enqueue(new LauncherEvent("e$it", null, 0)) }
+        bridge.close()
+
+        then:
+        received == (0..10).collect { "e$it" }
+        bridge.droppedCount == 0
+    }
+
+    def "an interrupted build thread drops the blocked event and keeps the interrupt"() {
+        given:
+        def bridge = new BuildEventBridge(listener, 1, BLOCK, 1, 1)
+        def proxy = java.lang.reflect.Proxy.newProxyInstance(getClass().classLoader, [EventReceiver] as Class[], bridge)
+        def outcome = [:]
+
+        when: "the first event is held by the listener, the second fills the queue and the third blocks"
+        def build = Thread.start {
+            try {
+                (0..2).each { proxy.receiveGriffonBuildEvent("e$it", [] as Object[]) }
+                outcome.interrupted = Thread.currentThread().isInterrupted()
+            } catch (Throwable t) {
+                outcome.failure = t
+            }
+        }
+        Thread.sleep(300)
+        build.interrupt()
+        build.join()
+        gate.countDown()
+        bridge.close()
+
+        then:
+        !outcome.failure
+        outcome.interrupted
+        received == ["e0", "e1"]
+        bridge.droppedCount == 1
+    }
+
+    def "a listener throwing an Error does not stop the delivery"() {
+        given:
+        def failing = { events ->
+            if (events*.name.contains("e0")) throw new AssertionError("boom")
+            received.addAll(events*.name)
+        } as LauncherEventListener
+        def bridge = new BuildEventBridge(failing, 1, BLOCK, 1, 1)
+
+        when:
+        (0..3).each { bridge.enqueue(new LauncherEvent("e$it", null, 0)) }
+        bridge.close()
+
+        then:
+        received == ["e1", "e2", "e3"]
+        bridge.failureCount == 1
+    }
+}
+
+interface EventReceiver {
+    void receiveGriffonBuildEvent(String name, Object... args)
+}
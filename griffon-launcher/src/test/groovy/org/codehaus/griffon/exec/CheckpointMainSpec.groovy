@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import spock.lang.Specification
+
+class CheckpointMainSpec extends Specification {
+
+    File dir
+
+    def setup() {
+        dir = File.createTempFile("checkpoint", "")
+        dir.delete()
+        dir.mkdirs()
+    }
+
+    def cleanup() {
+        dir.deleteDir()
+    }
+
+    def "the resource policies make the JVM reopen the jars of the classpath"() {
+        given:
+        def jar = new File(dir, "griffon-cli.jar")
+        jar.text = "jar"
+        def classes = new File(dir, "classes")
+        classes.mkdirs()
+        def policies = new File(dir, "policies.yml")
+
+        when:
+        CheckpointMain.writeResourcePolicies([jar.toURI().toURL(), classes.toURI().toURL()] as URL[], policies)
+
+        then:
+        policies.text == "type: file\npath: ${jar.absolutePath}\naction: reopen\n"
+    }
+}
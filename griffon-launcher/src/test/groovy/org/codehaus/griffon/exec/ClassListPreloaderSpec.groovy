@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import spock.lang.Specification
+
+class ClassListPreloaderSpec extends Specification {
+
+    File dir
+    File jar
+    File classList
+
+    def setup() {
+        dir = File.createTempFile("preloader", "")
+        dir.delete()
+        dir.mkdirs()
+
+        // Any jar will do, as long as the parent loader cannot see it.
+        jar = new File(dir, "spock.jar")
+        jar.bytes = new File(Specification.protectionDomain.codeSource.location.toURI()).bytes
+        classList = new File(dir, "Compile.classlist")
+    }
+
+    def cleanup() {
+        dir.deleteDir()
+    }
+
+    RootLoader newLoader() {
+        new RootLoader([jar.toURI().toURL()] as URL[], getClass().classLoader)
+    }
+
+    ClassListPreloader record() {
+        def loader = newLoader()
+        def preloader = new ClassListPreloader(loader, classList)
+        preloader.start()
+        Class.forName("spock.lang.Specification", false, loader)
+        preloader.finish()
+        preloader
+    }
+
+    def "classes loaded during the first run are recorded, then replayed"() {
+        when:
+        def recorder = record()
+
+        then:
+        recorder.recording
+        recorder.classCount > 0
+        classList.readLines().contains("spock.lang.Specification")
+
+        when:
+        def loader = newLoader()
+        def replayer = new ClassListPreloader(loader, classList)
+        replayer.start()
+        def deadline = System.currentTimeMillis() + 10000
+        while (replayer.preloadedCount + replayer.failureCount < replayer.classCount &&
+               System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        replayer.finish()
+
+        then:
+        !replayer.recording
+        replayer.classCount == recorder.classCount
+        replayer.preloadedCount == replayer.classCount
+        replayer.failureCount == 0
+    }
+
+    def "a changed classpath invalidates the class list"() {
+        given:
+        record()
+
+        when:
+        jar.lastModified = jar.lastModified() - 60000
+        def preloader = new ClassListPreloader(newLoader(), classList)
+        preloader.start()
+
+        then:
+        preloader.recording
+
+        cleanup:
+        preloader.cancel()
+    }
+
+    def "a corrupt class list is recorded again"() {
+        given:
+        record()
+        def lines = classList.readLines()
+        classList.text = ([lines[0], "elapsed soon"] + lines.drop(2)).join("\n")
+
+        when:
+        def preloader = new ClassListPreloader(newLoader(), classList)
+        preloader.start()
+        preloader.finish()
+
+        then:
+        preloader.recording
+        classList.readLines()[1] ==~ /elapsed \d+/
+    }
+
+    def "a cancelled recording does not write the class list"() {
+        given:
+        def loader = newLoader()
+        def preloader = new ClassListPreloader(loader, classList)
+
+        when:
+        preloader.start()
+        Class.forName("spock.lang.Specification", false, loader)
+        preloader.cancel()
+
+        then:
+        !classList.exists()
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import spock.lang.Specification
+
+class ClasspathFingerprintSpec extends Specification {
+
+    File dir
+
+    def setup() {
+        dir = File.createTempFile("fingerprint", "")
+        dir.delete()
+        dir.mkdirs()
+    }
+
+    def cleanup() {
+        dir.deleteDir()
+    }
+
+    File file(String path, String content) {
+        def file = new File(dir, path)
+        file.parentFile.mkdirs()
+        file.text = content
+        file
+    }
+
+    def "the fingerprint is stable until an entry changes"() {
+        given:
+        def a = file("a.jar", "a")
+        def b = file("b.jar", "b")
+        def fingerprint = ClasspathFingerprint.of([a, b])
+
+        expect:
+        ClasspathFingerprint.of([a, b]) == fingerprint
+        ClasspathFingerprint.of([b, a]) != fingerprint
+        ClasspathFingerprint.of([a]) != fingerprint
+
+        when:
+        b.text = "rebuilt"
+
+        then:
+        ClasspathFingerprint.of([a, b]) != fingerprint
+    }
+
+    def "a change to a nested class file changes the fingerprint of its directory"() {
+        given:
+        def classes = new File(dir, "classes")
+        def nested = file("classes/org/example/Foo.class", "foo")
+        def fingerprint = ClasspathFingerprint.of([classes])
+
+        when:
+        nested.text = "foo, recompiled"
+
+        then:
+        ClasspathFingerprint.of([classes]) != fingerprint
+    }
+}
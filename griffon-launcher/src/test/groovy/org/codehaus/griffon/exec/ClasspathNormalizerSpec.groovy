@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import spock.lang.Specification
+
+class ClasspathNormalizerSpec extends Specification {
+
+    File dir
+
+    def setup() {
+        dir = File.createTempFile("normalizer", "")
+        dir.delete()
+        dir.mkdirs()
+    }
+
+    def cleanup() {
+        dir.deleteDir()
+    }
+
+    File jar(String path, String content) {
+        def file = new File(dir, path)
+        file.parentFile.mkdirs()
+        file.text = content
+        file
+    }
+
+    def "same path reached twice is kept once"() {
+        given:
+        def a = jar("a-1.0.jar", "a")
+        new File(dir, "x").mkdirs()
+
+        when:
+        def normalizer = new ClasspathNormalizer([a, new File(dir, "x/../a-1.0.jar")])
+
+        then:
+        normalizer.files == [a.canonicalFile]
+        normalizer.duplicates.size() == 1
+    }
+
+    def "jars with the same content are kept once, first one wins"() {
+        given:
+        def a = jar("cache1/a-1.0.jar", "same")
+        def b = jar("b-2.0.jar", "other")
+        def c = jar("cache2/a-1.0.jar", "same")
+
+        when:
+        def normalizer = new ClasspathNormalizer([a, b, c])
+
+        then:
+        normalizer.files == [a.canonicalFile, b.canonicalFile]
+        normalizer.duplicates.size() == 1
+    }
+
+    def "different versions of an artifact are reported but kept"() {
+        given:
+        def old = jar("groovy-all-1.8.6.jar", "old")
+        def recent = jar("lib/groovy-all-2.0.6.jar", "new")
+
+        when:
+        def normalizer = new ClasspathNormalizer([old, recent])
+
+        then:
+        normalizer.files == [old.canonicalFile, recent.canonicalFile]
+        normalizer.conflicts == ["groovy-all": [old.canonicalFile, recent.canonicalFile]]
+    }
+}
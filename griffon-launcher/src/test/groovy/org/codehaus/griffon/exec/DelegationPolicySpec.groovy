@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static org.codehaus.griffon.launcher.DelegationPolicy.Rule.*
+
+class DelegationPolicySpec extends Specification {
+
+    def policy = new DelegationPolicy()
+        .parentFirst("javax.xml", "org.slf4j.*")
+        .childOnly("groovy.")
+        .blocked("org.acme.Secret", "org.acme.Secret.Public")
+
+    @Unroll({"$className is $rule"})
+    def "the most specific rule wins"() {
+        expect:
+        policy.ruleFor(className) == rule
+
+        where:
+        className                          | rule
+        "java.lang.String"                 | PARENT_FIRST
+        "org.w3c.dom.Node"                 | PARENT_FIRST
+        "org.w3c.dom.NodeList"             | CHILD_FIRST
+        "javax.xml.parsers.SAXParser"      | PARENT_FIRST
+        "javax.xmlx.Foo"                   | CHILD_FIRST
+        "org.slf4j.Logger"                 | PARENT_FIRST
+        "groovy.lang.GroovyObject"         | CHILD_ONLY
+        "org.acme.Secret"                  | BLOCKED
+        "org.acme.Secret\$Inner"           | BLOCKED
+        "org.acme.Secret.Public.Thing"     | BLOCKED
+        "org.acme.SecretSauce"             | CHILD_FIRST
+        "org"                              | CHILD_FIRST
+    }
+
+    def "a root loader follows its policy"() {
+        given:
+        def loader = new RootLoader([] as URL[])
+        loader.delegationPolicy = policy
+
+        when:
+        loader.loadClass("org.acme.Secret")
+
+        then:
+        thrown(ClassNotFoundException)
+
+        when:
+        loader.loadClass("groovy.lang.GroovyObject")
+
+        then:
+        thrown(ClassNotFoundException)
+
+        expect:
+        loader.loadClass("javax.xml.parsers.SAXParser").is(javax.xml.parsers.SAXParser)
+    }
+}
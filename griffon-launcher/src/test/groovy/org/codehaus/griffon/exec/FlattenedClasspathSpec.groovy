@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import java.util.jar.Attributes
+import java.util.jar.JarFile
+import java.util.jar.JarOutputStream
+import java.util.jar.Manifest
+import java.util.zip.ZipEntry
+
+import spock.lang.Specification
+
+class FlattenedClasspathSpec extends Specification {
+
+    File dir
+    File cacheDir
+
+    def setup() {
+        dir = File.createTempFile("flattened", "")
+        dir.delete()
+        dir.mkdirs()
+        cacheDir = new File(dir, "cache")
+    }
+
+    def cleanup() {
+        dir.deleteDir()
+    }
+
+    File jar(String name, String version, Map<String, String> entries) {
+        def manifest = new Manifest()
+        manifest.mainAttributes[Attributes.Name.MANIFEST_VERSION] = "1.0"
+        manifest.mainAttributes[Attributes.Name.IMPLEMENTATION_VERSION] = version
+        def file = new File(dir, name)
+        def out = new JarOutputStream(new FileOutputStream(file), manifest)
+        entries.each { path, content ->
+            out.putNextEntry(new ZipEntry(path))
+            out.write(content.getBytes("UTF-8"))
+            out.closeEntry()
+        }
+        out.close()
+        file
+    }
+
+    Map<String, String> read(URL archive) {
+        def jarFile = new JarFile(new File(archive.toURI()))
+        try {
+            jarFile.entries().toList().findAll { !it.directory }.collectEntries {
+                [(it.name): jarFile.getInputStream(it).getText("UTF-8")]
+            }
+        } finally {
+            jarFile.close()
+        }
+    }
+
+    def "the first jar wins, except for service files which are concatenated"() {
+        given:
+        def a = jar("a.jar", "1.0", ["a/Foo.class": "a", "META-INF/services/x.Spi": "a.Impl"])
+        def b = jar("b.jar", "2.0", ["a/Foo.class": "b", "b/Bar.class": "b", "META-INF/services/x.Spi": "b.Impl\n"])
+        def classes = new File(dir, "classes")
+        classes.mkdirs()
+
+        when:
+        def urls = new FlattenedClasspath(cacheDir).flatten([a, b, classes]*.toURI()*.toURL() as URL[])
+        def entries = read(urls[0])
+
+        then:
+        urls.length == 2
+        urls[1] == classes.toURI().toURL()
+        entries["a/Foo.class"] == "a"
+        entries["b/Bar.class"] == "b"
+        entries["META-INF/services/x.Spi"] == "a.Impl\nb.Impl\n"
+    }
+
+    def "flattening stops at the second jar with a Groovy extension module"() {
+        given:
+        def descriptor = "META-INF/services/org.codehaus.groovy.runtime.ExtensionModule"
+        def a = jar("a.jar", "1.0", ["a/Foo.class": "a", (descriptor): "moduleName=a\n"])
+        def b = jar("b.jar", "1.0", ["b/Bar.class": "b"])
+        def c = jar("c.jar", "1.0", ["c/Baz.class": "c", (descriptor): "moduleName=c\n"])
+        def flattened = new FlattenedClasspath(cacheDir)
+
+        when:
+        def urls = flattened.flatten([a, b, c]*.toURI()*.toURL() as URL[])
+
+        then:
+        urls.length == 2
+        read(urls[0])[descriptor] == "moduleName=a\n"
+        read(urls[0])["b/Bar.class"] == "b"
+        urls[1] == c.toURI().toURL()
+        flattened.flatten([a, b, c]*.toURI()*.toURL() as URL[]) == urls
+    }
+
+    def "packages keep the version of the jar they come from"() {
+        given:
+        def a = jar("a.jar", "1.0", ["a/Foo.class": "a"])
+        def b = jar("b.jar", "2.0", ["b/Bar.class": "b"])
+
+        when:
+        def urls = new FlattenedClasspath(cacheDir).flatten([a, b]*.toURI()*.toURL() as URL[])
+        def jarFile = new JarFile(new File(urls[0].toURI()))
+        def manifest = jarFile.manifest
+        jarFile.close()
+
+        then:
+        manifest.mainAttributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION) == "1.0"
+        manifest.getAttributes("a/").getValue(Attributes.Name.IMPLEMENTATION_VERSION) == "1.0"
+        manifest.getAttributes("b/").getValue(Attributes.Name.IMPLEMENTATION_VERSION) == "2.0"
+    }
+
+    def "archives are reused until one of the jars changes"() {
+        given:
+        def a = jar("a.jar", "1.0", ["a/Foo.class": "a"])
+        def b = jar("b.jar", "2.0", ["b/Bar.class": "b"])
+        def urls = [a, b]*.toURI()*.toURL() as URL[]
+        def flattened = new FlattenedClasspath(cacheDir)
+
+        when:
+        def first = flattened.flatten(urls)[0]
+        def archive = new File(first.toURI())
+        archive.lastModified = 1000L
+
+        then:
+        flattened.flatten(urls)[0] == first
+        archive.lastModified() == 1000L
+
+        when:
+        jar("b.jar", "2.1", ["b/Bar.class": "b, rebuilt"])
+        def second = flattened.flatten(urls)[0]
+
+        then:
+        second != first
+        read(second)["b/Bar.class"] == "b, rebuilt"
+    }
+}
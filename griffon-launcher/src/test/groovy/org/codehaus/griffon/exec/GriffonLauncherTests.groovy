@@ -3,6 +3,9 @@ package org.codehaus.griffon.launcher
 import junit.framework.AssertionFailedError
 import junit.framework.Assert
 
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
 /**
  * Test case for {@link GriffonLauncher}.
  */
@@ -57,6 +60,170 @@ class GriffonLauncherTests extends GroovyTestCase {
         assertNull testRunner.lastScript["args"]
         assertNull testRunner.lastScript["env"]
     }
+
+    void testLazyBootstrap() {
+        MockGriffonSetup.ran = false
+
+        def testHelper = new GriffonLauncher(new CustomClassLoader(this), null, null, true)
+        testHelper.classesDir = new File("target/classes")
+        testHelper.compileDependencies = [ "1", "2" ]
+
+        assertFalse testHelper.bootstrapped
+        assertNull testRunner
+        assertFalse MockGriffonSetup.ran
+
+        assertEquals 0, testHelper.launch("Compile")
+        assertTrue testHelper.bootstrapped
+        assertTrue MockGriffonSetup.ran
+        assertEquals new File("target/classes"), testSettings.classesDir
+        assertEquals([ "1", "2" ], testSettings.compileDependencies)
+        assertEquals "Compile", testRunner.lastScript["name"]
+    }
+
+    void testUnknownCommandsFailBeforeTheBootstrap() {
+        def index = File.createTempFile("scripts", ".index")
+        index.delete()
+
+        def testHelper = new GriffonLauncher(new CustomClassLoader(this), null, null, true)
+        testHelper.scriptCatalog = new ScriptCatalog(index)
+        try {
+            shouldFail(IllegalArgumentException) { testHelper.launch("compile") }
+            assertFalse testHelper.bootstrapped
+        } finally {
+            index.delete()
+        }
+    }
+
+    void testLazyBootstrapThreadsEndWithoutALaunch() {
+        def testHelper = new GriffonLauncher(new CustomClassLoader(this), null, null, true)
+        def executor = testHelper.bootstrapExecutor
+
+        assertTrue executor.isShutdown()
+        assertTrue executor.awaitTermination(10, TimeUnit.SECONDS)
+        assertFalse testHelper.bootstrapped
+
+        testHelper.close()
+        assertNull testHelper.bootstrapExecutor
+    }
+
+    void testWatchModeCoalescesChanges() {
+        def dir = File.createTempFile("watch", "")
+        dir.delete()
+        dir.mkdirs()
+
+        def runs = new LinkedBlockingQueue()
+        def watch = new WatchMode(new GriffonLauncher(new CustomClassLoader(this)), "Compile", "")
+        watch.addWatchDir(dir)
+        watch.runOnStart = false
+        watch.debounceMillis = 200
+        watch.listener = [
+            launchFinished: { exitCode, millis, changes -> runs << changes },
+            launchFailed: { e, changes -> runs << e }
+        ] as WatchMode.Listener
+
+        try {
+            watch.start()
+            3.times { new File(dir, "Foo${it}.groovy").text = "class Foo$it {}" }
+
+            def changes = runs.poll(10, TimeUnit.SECONDS)
+            assertEquals((0..2).collect { new File(dir, "Foo${it}.groovy") } as Set, changes)
+            assertNull runs.poll(500, TimeUnit.MILLISECONDS)
+            assertEquals 1, watch.launchCount
+            assertEquals "Compile", testRunner.lastScript["name"]
+        } finally {
+            watch.stop()
+            dir.deleteDir()
+        }
+    }
+
+    void testUpdateDependenciesOnlyReplacesTheProjectLayer() {
+        def dir = File.createTempFile("deps", "")
+        dir.delete()
+        dir.mkdirs()
+        def jar = { String name, String content -> def file = new File(dir, name); file.text = content; file }
+
+        def griffonLoader = new CustomClassLoader(this)
+        def testHelper = new GriffonLauncher(griffonLoader)
+        def a = jar("a-1.0.jar", "a")
+        def b = jar("b-1.0.jar", "b")
+
+        try {
+            assertTrue testHelper.updateDependencies([a], [a, b], [a, b])
+            def layer = testHelper.projectClassLoader
+            assertSame griffonLoader, layer.parent
+            assertSame layer, testSettings.rootLoader
+            assertEquals([a], testSettings.compileDependencies)
+            assertEquals([a, b], testSettings.runtimeDependencies)
+            assertTrue testSettings.dependenciesExternallyConfigured
+
+            // Added jars are appended to the current layer.
+            def c = jar("c-1.0.jar", "c")
+            assertFalse testHelper.updateDependencies([a, c], [a, b, c], [a, b, c])
+            assertSame layer, testHelper.projectClassLoader
+            assertTrue layer.URLs.contains(c.toURI().toURL())
+            assertEquals([a, c], testSettings.compileDependencies)
+
+            // A bumped jar needs a new layer, on top of the same Griffon loader.
+            def b2 = jar("b-2.0.jar", "b2")
+            assertTrue testHelper.updateDependencies([a, c], [a, b2, c], [a, b2, c])
+            assertNotSame layer, testHelper.projectClassLoader
+            assertSame griffonLoader, testHelper.projectClassLoader.parent
+            assertSame testHelper.projectClassLoader, testSettings.rootLoader
+            assertFalse testHelper.projectClassLoader.URLs.contains(b.toURI().toURL())
+
+            // So does a jar rebuilt in place.
+            layer = testHelper.projectClassLoader
+            a.text = "a rebuilt"
+            assertTrue testHelper.updateDependencies([a, c], [a, b2, c], [a, b2, c])
+            assertNotSame layer, testHelper.projectClassLoader
+        } finally {
+            testHelper.projectClassLoader.close()
+            dir.deleteDir()
+        }
+    }
+
+    void testProjectLayerLeavesOutTheJarsOfTheGriffonLoader() {
+        def dir = File.createTempFile("deps", "")
+        dir.delete()
+        new File(dir, "lib").mkdirs()
+        def jar = { String name, String content -> def file = new File(dir, name); file.text = content; file }
+
+        def groovy = jar("groovy-all-1.8.6.jar", "groovy")
+        def groovyCopy = jar("lib/groovy-all-1.8.6.jar", "groovy")
+        def app = jar("app-1.0.jar", "app")
+        def testHelper = new GriffonLauncher(new CustomClassLoader(this, [groovy.toURI().toURL()] as URL[]))
+
+        try {
+            testHelper.updateDependencies([groovy, app], [groovyCopy, app], [])
+            def layer = testHelper.projectClassLoader
+            assertEquals([app.toURI().toURL()], layer.URLs as List)
+            assertFalse layer.warmUp
+            assertEquals([groovy, app], testSettings.compileDependencies)
+
+            def other = jar("other-1.0.jar", "other")
+            testHelper.updateDependencies([groovy, app, other], [groovyCopy, app, other], [])
+            assertSame layer, testHelper.projectClassLoader
+            assertEquals([app, other]*.toURI()*.toURL(), layer.URLs as List)
+
+            // A jar of the same name and size, but patched, is not the one Griffon loads.
+            new File(dir, "patched").mkdirs()
+            def patched = jar("patched/groovy-all-1.8.6.jar", "grooxy")
+            testHelper.updateDependencies([groovy, app, other], [patched, app, other], [])
+            assertEquals([app, other, patched]*.toURI()*.toURL(), testHelper.projectClassLoader.URLs as List)
+        } finally {
+            testHelper.close()
+            dir.deleteDir()
+        }
+    }
+
+    void testCloseReleasesTheProjectLayer() {
+        def testHelper = new GriffonLauncher(new CustomClassLoader(this))
+        testHelper.updateDependencies([], [], [])
+        assertNotSame testHelper.classLoader, testHelper.projectClassLoader
+
+        testHelper.close()
+        assertSame testHelper.classLoader, testHelper.projectClassLoader
+    }
 }
 
 class MockGriffonScriptRunner {
@@ -69,6 +236,9 @@ class MockGriffonScriptRunner {
         Assert.assertSame testCase.testSettings, settings
     }
 
+    void setup() {
+    }
+
     int executeCommand(String scriptName, String args) {
         lastScript = [ name: scriptName, args: args ]
         return 0
@@ -124,8 +294,8 @@ class MockBuildSettingsHolder {
 class CustomClassLoader extends URLClassLoader {
     def testCase
 
-    CustomClassLoader(test) {
-        super([] as URL[])
+    CustomClassLoader(test, URL[] urls = [] as URL[]) {
+        super(urls)
         testCase = test
     }
 
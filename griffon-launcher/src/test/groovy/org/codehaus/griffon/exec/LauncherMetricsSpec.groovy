@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import java.lang.management.ManagementFactory
+import spock.lang.Specification
+
+class LauncherMetricsSpec extends Specification {
+
+    def "percentiles are within the precision of the histogram"() {
+        given:
+        def histogram = new LatencyHistogram()
+        (1..1000).each { histogram.record(it * 1000L) }
+
+        expect:
+        histogram.count == 1000
+        histogram.max == 1000000
+        Math.abs(histogram.getPercentile(50.0) - 500000) < 500000 * 0.07
+        histogram.getPercentile(100.0) == 1000000
+    }
+
+    def "launches are counted by script and exit code"() {
+        given:
+        def metrics = new LauncherMetrics(getClass().classLoader)
+
+        when:
+        metrics.launchFinished("RunApp", metrics.launchStarted(), 0)
+        metrics.launchFinished("RunApp", metrics.launchStarted(), 1)
+        metrics.launchFinished("TestApp", metrics.launchStarted(), null)
+
+        then:
+        metrics.launchCount == 3
+        metrics.activeLaunchCount == 0
+        metrics.launchesByScript == [RunApp: 2L, TestApp: 1L]
+        metrics.exitCodes == [0: 1L, 1: 1L]
+        metrics.failedLaunchCount == 1
+    }
+
+    def "metrics are exposed through JMX once registered"() {
+        given:
+        def loader = new RootLoader([] as URL[])
+        def metrics = new LauncherMetrics(loader)
+        loader.metrics = metrics
+
+        when:
+        metrics.register("spec")
+        loader.getResource("missing.txt")
+
+        then:
+        ManagementFactory.platformMBeanServer.getAttribute(metrics.objectName, "ResourceLookups") == 1L
+
+        when:
+        def name = metrics.objectName
+        metrics.unregister()
+
+        then:
+        !ManagementFactory.platformMBeanServer.isRegistered(name)
+    }
+}
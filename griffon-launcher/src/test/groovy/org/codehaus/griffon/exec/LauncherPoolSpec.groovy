@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import spock.lang.Specification
+
+class LauncherPoolSpec extends Specification {
+
+    File dir
+    LauncherPool pool = new LauncherPool(getClass().classLoader)
+
+    def setup() {
+        dir = File.createTempFile("pool", "")
+        dir.delete()
+        dir.mkdirs()
+    }
+
+    def cleanup() {
+        pool.close()
+        dir.deleteDir()
+    }
+
+    def "launchers are shared by project and released on close"() {
+        given:
+        def otherDir = new File(dir, "other")
+
+        when:
+        def first = pool.get([], null, dir)
+        def second = pool.get([], null, dir)
+        def other = pool.get([], null, otherDir)
+
+        then:
+        first.is(second)
+        !first.is(other)
+        !first.launcher.is(other.launcher)
+        !first.lock.is(other.lock)
+        pool.size() == 2
+
+        when:
+        pool.close()
+
+        then:
+        pool.size() == 0
+        !pool.get([], null, dir).is(first)
+    }
+
+    def "pooled launchers run with their own system properties"() {
+        expect:
+        pool.get([], null, dir).launcher.scopedSystemProperties
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+import spock.lang.Specification
+
+class RootLoaderSpec extends Specification {
+
+    File dir
+
+    def setup() {
+        dir = File.createTempFile("rootloader", "")
+        dir.delete()
+        dir.mkdirs()
+    }
+
+    def cleanup() {
+        dir.deleteDir()
+    }
+
+    File jar(String name, String entry) {
+        def file = new File(dir, name)
+        def out = new ZipOutputStream(new FileOutputStream(file))
+        out.putNextEntry(new ZipEntry(entry))
+        out.write(entry.bytes)
+        out.closeEntry()
+        out.close()
+        file
+    }
+
+    def "warming up reports the jars that are missing, are not jars or are corrupt"() {
+        given:
+        def valid = jar("valid.jar", "valid.txt")
+        def missing = new File(dir, "missing.jar")
+        def notAJar = new File(dir, "broken.jar")
+        notAJar.text = "broken"
+        def truncated = new File(dir, "truncated.jar")
+        def bytes = jar("whole.jar", "whole.txt").bytes
+        truncated.bytes = bytes[0..<(bytes.length - 10)] as byte[]
+        def urls = [valid, missing, notAJar, truncated]*.toURI()*.toURL() as URL[]
+
+        when:
+        def loader = new RootLoader(urls, null, true)
+
+        then:
+        loader.invalidJars.keySet() == [urls[1], urls[2], urls[3]] as Set
+        loader.getResource("valid.txt") != null
+
+        cleanup:
+        loader?.close()
+    }
+
+    def "jars added after construction are warmed up and found"() {
+        given:
+        def loader = new RootLoader([] as URL[], null, true)
+        def added = jar("added.jar", "added.txt")
+
+        when:
+        loader.addURL(added.toURI().toURL())
+
+        then:
+        loader.invalidJars.isEmpty()
+        loader.getResource("added.txt") != null
+
+        cleanup:
+        loader.close()
+    }
+
+    def "without warm-up nothing is checked"() {
+        given:
+        def missing = new File(dir, "missing.jar")
+
+        when:
+        def loader = new RootLoader([missing.toURI().toURL()] as URL[], null, false)
+
+        then:
+        loader.invalidJars.isEmpty()
+        loader.warmUpMillis == 0
+
+        cleanup:
+        loader.close()
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.CyclicBarrier
+import spock.lang.Specification
+
+class ScopedSystemPropertiesSpec extends Specification {
+
+    def "concurrent scopes do not see each other's properties"() {
+        given:
+        def barrier = new CyclicBarrier(2)
+        def seen = [:].asSynchronized()
+
+        when:
+        ["dev", "test"].collect { env ->
+            Thread.start {
+                def scope = ScopedSystemProperties.open(null)
+                try {
+                    System.setProperty("griffon.env", env)
+                    barrier.await()
+                    def child = Thread.start { seen["$env child"] = System.getProperty("griffon.env") }
+                    child.join()
+                    seen[env] = System.getProperty("griffon.env")
+                    barrier.await()
+                } finally {
+                    scope.close()
+                }
+            }
+        }*.join()
+
+        then:
+        seen == [dev: "dev", test: "test", "dev child": "dev", "test child": "test"]
+        System.getProperty("griffon.env") == null
+    }
+
+    def "the original properties are restored, with global changes, when the last scope closes"() {
+        given:
+        def original = System.properties
+
+        when:
+        def scope = ScopedSystemProperties.open(["griffon.cli.verbose": "true"])
+
+        then:
+        System.properties instanceof ScopedSystemProperties
+        Boolean.getBoolean("griffon.cli.verbose")
+
+        when:
+        System.clearProperty("user.home")
+        def outside = Thread.start { System.setProperty("scoped.spec.global", "yes") }
+        outside.join()
+
+        then:
+        System.getProperty("user.home") == null
+        !System.properties.stringPropertyNames().contains("user.home")
+
+        when:
+        scope.close()
+
+        then:
+        System.properties.is(original)
+        System.getProperty("user.home") != null
+        System.getProperty("griffon.cli.verbose") == null
+        System.getProperty("scoped.spec.global") == "yes"
+
+        cleanup:
+        System.clearProperty("scoped.spec.global")
+    }
+
+    def "a nested scope sees the properties of the scopes it was opened in"() {
+        given:
+        def outer = ScopedSystemProperties.open(["griffon.env": "dev", "scoped.spec.removed": "outer"])
+        def inner = ScopedSystemProperties.open(["scoped.spec.inner": "yes"])
+
+        when:
+        System.clearProperty("scoped.spec.removed")
+
+        then:
+        System.getProperty("griffon.env") == "dev"
+        System.getProperty("scoped.spec.inner") == "yes"
+        System.getProperty("scoped.spec.removed") == null
+        System.properties.stringPropertyNames().containsAll(["griffon.env", "scoped.spec.inner"])
+        !System.properties.stringPropertyNames().contains("scoped.spec.removed")
+
+        when:
+        inner.close()
+
+        then:
+        System.getProperty("scoped.spec.inner") == null
+        System.getProperty("scoped.spec.removed") == "outer"
+
+        cleanup:
+        inner.close()
+        outer.close()
+    }
+
+    def "threads outliving their scope stop using it once it is closed"() {
+        given:
+        def outer = ScopedSystemProperties.open(["griffon.env": "dev"])
+        def inner = ScopedSystemProperties.open(["griffon.env": "test"])
+        def closed = new CountDownLatch(1)
+        def seen = [:].asSynchronized()
+        def child = Thread.start {
+            closed.await()
+            seen.env = System.getProperty("griffon.env")
+            System.setProperty("scoped.spec.late", "yes")
+        }
+
+        when:
+        inner.close()
+        closed.countDown()
+        child.join()
+
+        then:
+        seen.env == "dev"
+        System.getProperty("scoped.spec.late") == "yes"
+
+        when:
+        outer.close()
+
+        then:
+        System.getProperty("scoped.spec.late") == null
+
+        cleanup:
+        inner.close()
+        outer.close()
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+import spock.lang.Specification
+
+class ScriptCatalogSpec extends Specification {
+
+    File dir
+    File indexFile
+
+    def setup() {
+        dir = File.createTempFile("catalog", "")
+        dir.delete()
+        dir.mkdirs()
+        indexFile = new File(dir, "index.properties")
+
+        script "home/scripts/RunApp.groovy"
+        script "home/scripts/TestApp.groovy"
+        script "home/scripts/_GriffonCompile.groovy"
+        script "project/scripts/Deploy.groovy"
+        script "plugins/fest-0.5/scripts/FestTest.groovy"
+    }
+
+    def cleanup() {
+        dir.deleteDir()
+    }
+
+    File script(String path) {
+        def file = new File(dir, path)
+        file.parentFile.mkdirs()
+        file.text = "// $path"
+        file
+    }
+
+    ScriptCatalog newCatalog() {
+        def catalog = new ScriptCatalog(indexFile)
+        catalog.addScriptsDir(new File(dir, "project/scripts"))
+        catalog.addScriptsDir(new File(dir, "home/scripts"))
+        catalog.addPluginsDir(new File(dir, "plugins"))
+        catalog
+    }
+
+    def "scripts are indexed from all sources"() {
+        expect:
+        newCatalog().scriptNames == ["Deploy", "FestTest", "RunApp", "TestApp", "_GriffonCompile"] as Set
+        newCatalog().getScriptFile("Deploy") == new File(dir, "project/scripts/Deploy.groovy").absoluteFile
+    }
+
+    def "packaged scripts are found in any jar, whatever its name"() {
+        given:
+        def jar = new File(dir, "0123456789abcdef.jar")
+        def out = new ZipOutputStream(new FileOutputStream(jar))
+        ["scripts/Package.groovy", "CreateApp_.class", "CreateApp_\$_run_closure1.class", "Helper.class"].each {
+            out.putNextEntry(new ZipEntry(it))
+            out.closeEntry()
+        }
+        out.close()
+
+        when:
+        def catalog = new ScriptCatalog(indexFile)
+        catalog.addScriptsJar(jar)
+
+        then:
+        catalog.scriptNames == ["Package", "CreateApp"] as Set
+        catalog.getScriptFile("Package") == null
+    }
+
+    def "unreadable jars are skipped and reported"() {
+        given:
+        def jar = new File(dir, "broken.jar")
+        jar.text = "not a jar"
+        def catalog = newCatalog()
+        catalog.addScriptsJar(jar)
+
+        expect:
+        catalog.resolve("run-app") == "RunApp"
+        catalog.unreadableJars.keySet() == [jar.absolutePath] as Set
+        newCatalog().with { addScriptsJar(jar); unreadableJars.keySet() } == [jar.absolutePath] as Set
+    }
+
+    def "commands and script names are resolved"() {
+        expect:
+        newCatalog().resolve(name) == script
+
+        where:
+        name        | script
+        "run-app"   | "RunApp"
+        "RunApp"    | "RunApp"
+        "fest-test" | "FestTest"
+    }
+
+    def "unknown commands fail with suggestions"() {
+        when:
+        newCatalog().resolve("run-ap")
+
+        then:
+        IllegalArgumentException e = thrown()
+        e.message == "Unknown Griffon command 'run-ap', did you mean: run-app?"
+    }
+
+    def "the index is persisted and rebuilt when a source changes"() {
+        given:
+        newCatalog().scriptNames
+
+        expect:
+        indexFile.exists()
+
+        when:
+        def scriptsDir = new File(dir, "project/scripts")
+        script "project/scripts/Release.groovy"
+        scriptsDir.lastModified = scriptsDir.lastModified() + 2000
+
+        then:
+        newCatalog().contains("Release")
+    }
+}
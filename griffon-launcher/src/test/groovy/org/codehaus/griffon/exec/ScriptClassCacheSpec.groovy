@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import spock.lang.Specification
+
+class ScriptClassCacheSpec extends Specification {
+
+    File dir
+    File scriptsDir
+    File cacheDir
+    ScriptCatalog catalog
+
+    def setup() {
+        dir = File.createTempFile("scriptcache", "")
+        dir.delete()
+        scriptsDir = new File(dir, "scripts")
+        scriptsDir.mkdirs()
+        cacheDir = new File(dir, "cache")
+        catalog = new ScriptCatalog(new File(dir, "scripts.index"))
+        catalog.addScriptsDir(scriptsDir)
+
+        new File(scriptsDir, "Hello.groovy").text = '''
+            if (binding.variables.includeTargets) includeTargets << griffonScript("_Greeting")
+            def greet = { name -> "Hello $name" }
+            greet("Griffon")
+        '''
+        new File(scriptsDir, "_Greeting.groovy").text = '"Hi"'
+    }
+
+    def cleanup() {
+        dir.deleteDir()
+    }
+
+    ScriptClassCache newCache() {
+        new ScriptClassCache(cacheDir, new RootLoader([] as URL[], getClass().classLoader), "1.2.0")
+    }
+
+    def "scripts and the scripts they include are compiled once"() {
+        given:
+        def first = newCache()
+        def second = newCache()
+
+        when:
+        first.preload("Hello", catalog)
+        second.preload("Hello", catalog)
+
+        then:
+        first.missCount == 2
+        second.hitCount == 2
+        second.missCount == 0
+    }
+
+    def "cached scripts are defined in the root loader"() {
+        given:
+        newCache().preload("Hello", catalog)
+        def cache = newCache()
+
+        when:
+        def name = cache.load(new File(scriptsDir, "Hello.groovy"))
+
+        then: "nothing is defined until the class is asked for"
+        cache.loader.compiledClassCount == 0
+
+        when:
+        def script = cache.loader.loadClass(name).newInstance()
+
+        then:
+        name == "Hello"
+        cache.loader.compiledClassCount == 1
+        script.class.classLoader.parent.is(cache.loader)
+        script.run() == "Hello Griffon"
+    }
+
+    def "a script changed after its classes were defined is not run stale"() {
+        given:
+        def source = new File(scriptsDir, "_Greeting.groovy")
+        def cache = newCache()
+        def name = cache.load(source)
+        def before = cache.loader.loadClass(name)
+
+        when:
+        source.text = '"Hey"'
+        cache.load(source)
+        def after = cache.loader.loadClass(name)
+
+        then:
+        !after.is(before)
+        after.newInstance().run() == "Hey"
+        cache.loader.compiledClassCount == 2
+
+        when: "the script is changed back"
+        source.text = '"Hi"'
+        cache.load(source)
+
+        then:
+        cache.loader.loadClass(name).newInstance().run() == "Hi"
+    }
+
+    def "changing a script makes a new entry"() {
+        given:
+        def script = new File(scriptsDir, "_Greeting.groovy")
+        newCache().load(script)
+
+        when:
+        script.text = '"Hey"'
+        def cache = newCache()
+        cache.load(script)
+
+        then:
+        cache.missCount == 1
+        cacheDir.listFiles().findAll { it.name.endsWith(".classes") }.size() == 2
+    }
+
+    def "corrupt entries are compiled again"() {
+        given:
+        def script = new File(scriptsDir, "_Greeting.groovy")
+        newCache().load(script)
+        cacheDir.listFiles().find { it.name.endsWith(".classes") }.text = "garbage"
+
+        when:
+        def cache = newCache()
+        cache.load(script)
+
+        then:
+        cache.missCount == 1
+    }
+}
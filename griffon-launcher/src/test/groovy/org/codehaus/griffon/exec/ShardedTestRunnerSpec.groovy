@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.launcher
+
+import spock.lang.Specification
+
+class ShardedTestRunnerSpec extends Specification {
+
+    def runner = new ShardedTestRunner([] as URL[], null, "project")
+
+    def "longest tests are spread first"() {
+        given:
+        runner.shards = 2
+        def timings = new Properties()
+        timings.putAll([ATests: "10", BTests: "6", CTests: "5", DTests: "1"])
+
+        expect:
+        runner.assign(["DTests", "CTests", "BTests", "ATests"], timings) == [["ATests", "DTests"], ["BTests", "CTests"]]
+    }
+
+    def "unknown tests are assumed to take the average time"() {
+        given:
+        runner.shards = 2
+        def timings = new Properties()
+        timings.putAll([ATests: "4", BTests: "2"])
+
+        expect:
+        runner.assign(["ATests", "BTests", "NewTests"], timings) == [["ATests"], ["NewTests", "BTests"]]
+    }
+
+    def "there are never more shards than test classes"() {
+        given:
+        runner.shards = 8
+
+        expect:
+        runner.assign(["ATests", "BTests"], new Properties()).size() == 2
+    }
+
+    def "test classes are found under a test directory"() {
+        given:
+        def dir = File.createTempFile("tests", "")
+        dir.delete()
+        ["com/acme/FooTests.groovy", "com/acme/BarSpec.groovy", "com/acme/Helper.groovy", "BazTest.java"].each {
+            def file = new File(dir, it)
+            file.parentFile.mkdirs()
+            file.text = ""
+        }
+
+        expect:
+        ShardedTestRunner.findTestClasses(dir) == ["BazTest", "com.acme.BarSpec", "com.acme.FooTests"]
+
+        cleanup:
+        dir.deleteDir()
+    }
+
+    def "reports of a previous run are deleted before the shards start"() {
+        given:
+        def dir = File.createTempFile("shards", "")
+        dir.delete()
+        def stale = [new File(dir, "target/test-shards/shard-1/test-reports/TEST-MovedTests.xml"),
+                     new File(dir, "target/test-reports/TEST-MovedTests.xml")]
+        stale.each {
+            it.parentFile.mkdirs()
+            it.text = "<testsuite/>"
+        }
+        def runner = new ShardedTestRunner([] as URL[], null, dir.path)
+
+        when:
+        runner.cleanWorkDirs()
+
+        then:
+        !new File(dir, "target/test-shards").exists()
+        !new File(dir, "target/test-reports").exists()
+
+        cleanup:
+        dir.deleteDir()
+    }
+}